@@ -1,3 +1,12 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
 /**
  * AVLTree
  * An implementation of a AVL Tree with distinct integer keys and info
@@ -6,14 +15,166 @@
 
 public class AVLTree {
 
+	private static final AVLNode VIRTUAL_LEAF = new AVLTree().new VirtualLeaf(); // shared virtual leaf of all trees, its setters throw
+	private static final int FINGER_CLIMB = 4; // walks start from the finger only for keys within this many levels of it
+	private static final int PARALLEL_THRESHOLD = 1 << 13; // parallel operations handle fewer keys than this sequentially
+	private static final int UNION = 0; // set operations
+	private static final int INTERSECTION = 1;
+	private static final int DIFFERENCE = 2;
+
 	private AVLNode root;
 	private AVLNode minNode;
 	private AVLNode maxNode;
+	private AVLNode finger; // the node last inserted or next to the last deleted, or null; walks for keys near it start from it
+	private final Aggregator<Object> aggregator; // combines the items of every subtree into its root, or null
+	private final ValueArena arena; // holds the info of the nodes this tree creates, or null
+	private AVLTreeMetrics metrics; // null unless enableMetrics() was called; every hook checks it first
+	private AVLTreeFilter filter; // null unless enableFilter() was called
 
 	public AVLTree() { // Builder
+		this((Aggregator<?>) null);
+	}
+
+	/**
+	 * public AVLTree(Aggregator<?> aggregator)
+	 *
+	 * Creates an empty tree whose nodes cache aggregator's combination of their subtree's items,
+	 * kept up to date like the subtree sizes, for aggregate(aggregator, lo, hi).
+	 * A null aggregator caches nothing.
+	 */
+	public AVLTree(Aggregator<?> aggregator) {
+		this(aggregator, null);
+	}
+
+	/**
+	 * public AVLTree(Aggregator<?> aggregator, ValueArena arena)
+	 *
+	 * Same as AVLTree(aggregator), but the nodes this tree creates keep their info in arena, as UTF-8
+	 * bytes shared by equal values, and materialize a String only when asked for it (getValue, search,
+	 * infoToArray); searchBytes reads the bytes in place. Trees split off this one use the same arena.
+	 * A null arena keeps a String in every node.
+	 */
+	@SuppressWarnings("unchecked")
+	public AVLTree(Aggregator<?> aggregator, ValueArena arena) {
 		this.root=null;
 		this.minNode=null;
 		this.maxNode=null;
+		this.finger=null;
+		this.aggregator=(Aggregator<Object>) aggregator;
+		this.arena=arena;
+	}
+
+	/**
+	 * public AVLTree(int[] keys, String[] infos)
+	 *
+	 * Bulk builder: builds a perfectly balanced tree from keys in strictly increasing order,
+	 * where infos[j] is the info of keys[j]. O(n), with no rebalancing and no searching.
+	 * Throws IllegalArgumentException if the arrays differ in length or keys are not strictly increasing.
+	 */
+	public AVLTree(int[] keys, String[] infos) {
+		this(keys, infos, false);
+	}
+
+	/**
+	 * public AVLTree(int[] keys, String[] infos, boolean parallel)
+	 *
+	 * Same as AVLTree(keys, infos); if parallel is true, large halves are built
+	 * concurrently on the common ForkJoinPool.
+	 */
+	public AVLTree(int[] keys, String[] infos, boolean parallel) {
+		this(null, null, keys, infos, parallel);
+	}
+
+	/**
+	 * public AVLTree(Aggregator<?> aggregator, ValueArena arena, int[] keys, String[] infos, boolean parallel)
+	 *
+	 * Same as AVLTree(keys, infos, parallel) for a tree created by AVLTree(aggregator, arena): the aggregates
+	 * are computed bottom-up as the nodes are built, still in O(n). A ValueArena is not thread-safe, so with
+	 * an arena the tree is built on the calling thread whatever parallel is.
+	 */
+	public AVLTree(Aggregator<?> aggregator, ValueArena arena, int[] keys, String[] infos, boolean parallel) {
+		this(aggregator, arena);
+		if (keys.length != infos.length)
+			throw new IllegalArgumentException("keys and infos differ in length");
+		for (int j = 1; j < keys.length; j++) {
+			if (keys[j - 1] >= keys[j])
+				throw new IllegalArgumentException("keys are not strictly increasing at index " + j);
+		}
+		AVLNode top;
+		if (parallel && arena == null && keys.length > PARALLEL_THRESHOLD) {
+			top = ForkJoinPool.commonPool().invoke(new BuildTask(keys, infos, 0, keys.length - 1));
+		}
+		else {
+			top = buildSubtree(keys, infos, 0, keys.length - 1);
+		}
+		resetRoot(top);
+	}
+
+	/**
+	 * public AVLTree(PrimitiveIterator.OfInt keys, Iterator<String> infos, int n)
+	 *
+	 * Bulk builder from the first n items of two iterators, keys in strictly increasing order.
+	 * Reads both iterators once, in order, and builds a perfectly balanced tree in O(n).
+	 * Throws IllegalArgumentException if keys are not strictly increasing,
+	 * and NoSuchElementException if an iterator has fewer than n items.
+	 */
+	public AVLTree(PrimitiveIterator.OfInt keys, Iterator<String> infos, int n) {
+		this(null, null, keys, infos, n);
+	}
+
+	/**
+	 * public AVLTree(Aggregator<?> aggregator, ValueArena arena, PrimitiveIterator.OfInt keys, Iterator<String> infos, int n)
+	 *
+	 * Same as AVLTree(keys, infos, n) for a tree created by AVLTree(aggregator, arena); the infos are
+	 * added to arena in key order.
+	 */
+	public AVLTree(Aggregator<?> aggregator, ValueArena arena, PrimitiveIterator.OfInt keys, Iterator<String> infos, int n) {
+		this(aggregator, arena);
+		long[] previousKey = {Long.MIN_VALUE};
+		resetRoot(buildSubtree(keys, infos, n, previousKey));
+	}
+
+	private void resetRoot(AVLNode top) { //makes a detached subtree (or a virtual leaf) the whole tree
+		this.finger = null;
+		if (!top.isRealNode()) { // no items
+			setRoot(null);
+			this.minNode = null;
+			this.maxNode = null;
+		}
+		else {
+			setRoot(top);
+			this.minNode = (AVLNode) top.minNode();
+			this.maxNode = (AVLNode) top.maxNode();
+		}
+		if (this.filter != null) // the keys changed wholesale
+			this.filter.rebuild();
+	}
+
+	private AVLNode buildSubtree(int[] keys, String[] infos, int from, int to) { //returns the root of keys[from..to], or a virtual leaf
+		if (from > to)
+			return VIRTUAL_LEAF;
+		int mid = (from + to) >>> 1;
+		return connect(buildSubtree(keys, infos, from, mid - 1), keys[mid], infos[mid], buildSubtree(keys, infos, mid + 1, to));
+	}
+
+	private AVLNode buildSubtree(PrimitiveIterator.OfInt keys, Iterator<String> infos, int n, long[] previousKey) { //in-order build of the next n items
+		if (n <= 0)
+			return VIRTUAL_LEAF;
+		AVLNode left = buildSubtree(keys, infos, (n - 1) / 2, previousKey);
+		int key = keys.nextInt();
+		if (key <= previousKey[0])
+			throw new IllegalArgumentException("keys are not strictly increasing at key " + key);
+		previousKey[0] = key;
+		String info = infos.next();
+		return connect(left, key, info, buildSubtree(keys, infos, n - 1 - (n - 1) / 2, previousKey));
+	}
+
+	private AVLNode connect(AVLNode left, int key, String info, AVLNode right) { //new node over two built subtrees of similar size
+		AVLNode node = newNode(key, info, Math.max(left.getHeight(), right.getHeight()) + 1, right, left, null, left.getSize() + right.getSize() + 1);
+		setParentOf(left, node);
+		setParentOf(right, node);
+		updateAggregate(node);
+		return node;
 	}
 
 	/**
@@ -34,28 +195,46 @@ public class AVLTree {
 	 *
 	 * returns the info of an item with key k if it exists in the tree
 	 * otherwise, returns null
+	 * Starts from the finger (the node last inserted, or next to the last deleted) if k is within a few levels
+	 * of it, and from the root otherwise, so a key at distance d < 2^FINGER_CLIMB from it costs O(log d).
+	 * search changes nothing in the tree, only the statistics of the metrics and the filter, so an unchanging
+	 * tree may be searched by several threads at once (e.g. under the read lock of a ReadWriteLock).
+	 * With a filter (see enableFilter), most missing keys are answered without walking the tree.
 	 */
 	public String search(int k)
+	{
+		AVLNode myNode = searchNode(k);
+		return myNode == null ? null : myNode.getValue();
+	}
+
+	/**
+	 * public ByteBuffer searchBytes(int k)
+	 *
+	 * Same as search, but returns the info as read-only UTF-8 bytes: in place for a node whose info
+	 * is in an arena (see AVLTree(Aggregator, ValueArena)), encoded anew otherwise.
+	 * Returns null if there is no item with key k or its info is null.
+	 */
+	public ByteBuffer searchBytes(int k)
+	{
+		AVLNode myNode = searchNode(k);
+		return myNode == null ? null : myNode.getValueBytes();
+	}
+
+	private AVLNode searchNode(int k) //the node of k, or null
 	{
 		if(this.empty())
 			return null;
-		IAVLNode myNode = this.root;
-
-		while (myNode != null && myNode.isRealNode()) {
-			if (k == myNode.getKey()) {
-				return myNode.getValue();
-			}
-			else if (k < myNode.getKey()) {
-				myNode = myNode.getLeft();
-			}
-			else {
-				myNode = myNode.getRight();
-			}
-		}
-		if (myNode == null | !myNode.isRealNode()) { //k does not exist in tree
+		if (this.metrics != null)
+			this.metrics.search();
+		if (this.filter != null && !this.filter.mightContain(k))
+			return null;
+		AVLNode myNode = fingerPosition(k); // reads the finger only
+		if (k != myNode.getKey()) { //k does not exist in tree
+			if (this.filter != null)
+				this.filter.falsePositive();
 			return null;
 		}
-		return myNode.getValue();  
+		return myNode;
 	}
 
 	/**
@@ -65,37 +244,49 @@ public class AVLTree {
 	 * the tree must remain valid (keep its invariants).
 	 * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
 	 * returns -1 if an item with key k already exists in the tree.
+	 * The position is found from the finger (see search), and keys beyond the current
+	 * minimum or maximum go straight to minNode/maxNode, so increasing keys need no search.
+	 * Heights are refreshed only up to the first ancestor whose height is unchanged, but subtree sizes
+	 * (and aggregates) still climb to the root, so an append costs O(log n) parent steps without comparisons.
 	 */
 	public int insert(int k, String i) {
+		int result = insertItem(k, i);
+		if (this.metrics != null)
+			this.metrics.insert(result);
+		if (this.filter != null && result != -1)
+			this.filter.add(k);
+		return result;
+	}
+
+	private int insertItem(int k, String i) {
 		int rebalanceOpp = 0;
 		if (this.empty()) { //tree is empty
-			this.root = new AVLNode(k, i, 0, null, null, null, 1); //insert node as a root
-			this.root.setLeft(new AVLNode(this.root));
-			this.root.setRight(new AVLNode(this.root));
+			this.root = newNode(k, i, 0, VIRTUAL_LEAF, VIRTUAL_LEAF, null, 1); //insert node as a root
+			updateAggregate(this.root);
 			this.minNode=this.root;
 			this.maxNode=this.root;
 			return rebalanceOpp; 
 		}
 		else {
-			AVLNode nodePosition = TreePosition(k);
+			AVLNode nodePosition = fingerPosition(k);
+			this.finger = nodePosition;
 			if (nodePosition.getKey() == k) { //key k already exists in the tree
 				return rebalanceOpp-1;
 			}
+			AVLNode newNode = newNode(k, i, 0, VIRTUAL_LEAF, VIRTUAL_LEAF, nodePosition, 1); //the only allocation of insert
+			updateAggregate(newNode);
 			if (k < nodePosition.getKey()) {
-				nodePosition.setLeft(new AVLNode(k, i, 0, null, null, nodePosition, 1));
-				nodePosition.getLeft().setLeft(new AVLNode((AVLNode) nodePosition.getLeft()));
-				nodePosition.getLeft().setRight(new AVLNode((AVLNode) nodePosition.getLeft()));
+				nodePosition.setLeft(newNode);
 			}
 			else {
-				nodePosition.setRight(new AVLNode(k, i, 0, null, null, nodePosition, 1));
-				nodePosition.getRight().setLeft(new AVLNode((AVLNode) nodePosition.getRight()));
-				nodePosition.getRight().setRight(new AVLNode((AVLNode) nodePosition.getRight()));
+				nodePosition.setRight(newNode);
 			}
 			controlSize(1, nodePosition);
 			if(this.minNode == null || k < this.minNode.getKey()) //update min pointer to k if k < minNode or this.minNode==null for split function
-				this.minNode = TreePosition(k);
+				this.minNode = newNode;
 			if(this.maxNode == null || k > this.maxNode.getKey()) //update max pointer to k if k > maxNode or this.maxNode==null for split function
-				this.maxNode = TreePosition(k);
+				this.maxNode = newNode;
+			this.finger = newNode;
 			rebalanceOpp = this.insertionRebalance(nodePosition);
 		}
 		return rebalanceOpp;	
@@ -110,13 +301,25 @@ public class AVLTree {
 	 * returns -1 if an item with key k was not found in the tree.
 	 */
 	public int delete(int k)
+	{
+		int result = deleteItem(k);
+		if (this.metrics != null)
+			this.metrics.delete(result);
+		if (this.filter != null && result != -1)
+			this.filter.remove(k);
+		return result;
+	}
+
+	private int deleteItem(int k) //also deletes the successor of a node with two children
 	{
 		if(this.empty())
 			return -1;
-		AVLNode nodePosition = TreePosition(k);
+		AVLNode nodePosition = fingerPosition(k);
 		if (nodePosition.getKey() != k) { //key k was not found in the tree
+			this.finger = nodePosition;
 			return -1;
 		}
+		this.finger = null; // nodePosition leaves the tree
 		int balanceSuc=0;
 		AVLNode parent = (AVLNode) nodePosition.getParent();
 		if(parent!=null) { // checks if we the delete the min or max node when not the root
@@ -134,10 +337,10 @@ public class AVLTree {
 				return 0;
 			}
 			else if (nodePosition.isRightNode()){ //node is a right child
-				parent.setRight(new AVLNode(parent)); //replace node with virtual node
+				parent.setRight(VIRTUAL_LEAF); //replace node with virtual node
 			}
 			else { //node is a left child
-				parent.setLeft(new AVLNode(parent)); //replace node with virtual node
+				parent.setLeft(VIRTUAL_LEAF); //replace node with virtual node
 			}
 			controlSize(-1, parent);
 		}
@@ -177,7 +380,7 @@ public class AVLTree {
 			AVLNode successor = successor(nodePosition);
 			if(successor.equals(this.maxNode)) //delete will change the maxNode
 				flag2=true;
-			balanceSuc+=delete(successor.getKey());
+			balanceSuc+=deleteItem(successor.getKey());
 			if(flag2==true) { // the successor will be maxNode
 				this.maxNode=successor;
 			}
@@ -187,8 +390,8 @@ public class AVLTree {
 			successor.setLeft(nodePosition.getLeft());
 			successor.setRight(nodePosition.getRight());
 			successor.setParent(successorNewParent);
-			nodePosition.getLeft().setParent(successor);
-			nodePosition.getRight().setParent(successor);
+			setParentOf(nodePosition.getLeft(), successor);
+			setParentOf(nodePosition.getRight(), successor);
 			if(successorNewParent!=null) {
 				if(successorNewParent.getLeft().equals(nodePosition)) { //the parent of node position is on the left side
 					successorNewParent.setLeft(successor);
@@ -200,10 +403,13 @@ public class AVLTree {
 			else {
 				setRoot(successor);
 			}
+			if (this.aggregator != null) // the ancestors of successor still combine the item of nodePosition
+				controlSize(0, successor);
 		}
 		nodePosition.setParent(null);
 		nodePosition.setLeft(null);
 		nodePosition.setRight(null);
+		this.finger = parent;
 		return balanceSuc+deleteBalancing(parent);
 	}
 
@@ -242,27 +448,11 @@ public class AVLTree {
 	 */
 	public int[] keysToArray()
 	{
-		if (this.empty()) { //tree is empty
-			int [] emptyArr = {};
-			return emptyArr;
-		}
-		int[] arr = new int[getRoot().getSize()];
-		indexKey=0;
-		fillKeysArray(getRoot(),arr);      
+		int[] arr = new int[size()];
+		toArrays(arr, null, false);
 		return arr;              
 	}
 
-	static int indexKey;
-
-	private void fillKeysArray(IAVLNode myNode,int [] arr) {
-		if(myNode.getLeft().isRealNode())
-			fillKeysArray(myNode.getLeft(),arr);
-		arr[indexKey]=myNode.getKey();
-		indexKey++;
-		if(myNode.getRight().isRealNode())
-			fillKeysArray(myNode.getRight(),arr);  
-	}
-
 	/**
 	 * public String[] infoToArray()
 	 *
@@ -272,26 +462,72 @@ public class AVLTree {
 	 */
 	public String[] infoToArray()
 	{
-		if (this.empty()) { //tree is empty
-			String [] emptyArr = {};
-			return emptyArr;
-		}
-		String[] arr = new String[getRoot().getSize()];
-		indexInfo=0;
-		fillInfoArray(getRoot(),arr);      
+		String[] arr = new String[size()];
+		toArrays(null, arr, false);
 		return arr;  
 	}
 
-	static int indexInfo;
+	/**
+	 * public void toArrays(int[] keys, String[] infos)
+	 *
+	 * Fills keys and infos with the keys and info of the tree, sorted by key, in one traversal.
+	 * Either array may be null to skip it; an array given must have at least size() places.
+	 */
+	public void toArrays(int[] keys, String[] infos)
+	{
+		toArrays(keys, infos, false);
+	}
 
-	private void fillInfoArray(IAVLNode myNode,String [] arr) {
-		if(myNode.getLeft().isRealNode())
-			fillInfoArray(myNode.getLeft(),arr);
-		arr[indexInfo]=myNode.getValue();
-		indexInfo++;
-		if(myNode.getRight().isRealNode())
-			fillInfoArray(myNode.getRight(),arr);  
+	/**
+	 * public void toArrays(int[] keys, String[] infos, boolean parallel)
+	 *
+	 * Same as toArrays(keys, infos); if parallel is true, large subtrees are exported
+	 * concurrently on the common ForkJoinPool, each writing from the offset its subtree size gives it.
+	 */
+	public void toArrays(int[] keys, String[] infos, boolean parallel)
+	{
+		int n = size();
+		if ((keys != null && keys.length < n) || (infos != null && infos.length < n))
+			throw new IllegalArgumentException("arrays are shorter than the tree size " + n);
+		if (n == 0)
+			return;
+		if (parallel && n > PARALLEL_THRESHOLD) {
+			ForkJoinPool.commonPool().invoke(new ExportTask(getRoot(), keys, infos, 0));
+		}
+		else {
+			exportSubtree(getRoot(), keys, infos, 0);
+		}
 	}
+
+	/**
+	 * public FrozenAVLTree freeze()
+	 *
+	 * Returns an immutable, array-based copy of the items of the tree in Eytzinger layout,
+	 * for searches, rank and range queries without pointer chasing. O(n); the tree is not changed.
+	 */
+	public FrozenAVLTree freeze()
+	{
+		int[] keys = new int[size()];
+		String[] infos = new String[keys.length];
+		toArrays(keys, infos, false);
+		return new FrozenAVLTree(keys, infos);
+	}
+
+	private void exportSubtree(AVLNode node, int[] keys, String[] infos, int offset) { //in-order from the minimum by successor steps: no recursion, no shared counter
+		int n = node.getSize();
+		if (n == 0)
+			return;
+		AVLNode current = (AVLNode) node.minNode();
+		for (int j = offset; j < offset + n; j++) {
+			if (keys != null)
+				keys[j] = current.getKey();
+			if (infos != null)
+				infos[j] = current.getValue();
+			if (j + 1 < offset + n) // the successor of the last node is outside the subtree
+				current = successor(current);
+		}
+	}
+
 	/**
 	 * public int size()
 	 *
@@ -307,207 +543,482 @@ public class AVLTree {
 		return this.root.getSize();
 	}
 
+	/**
+	 * public IAVLNode select(int i)
+	 *
+	 * Returns the node with the i'th smallest key (counting from 0, so select(i) matches keysToArray()[i]),
+	 * or null if i < 0 or i >= size().
+	 * Uses the subtree sizes, O(log n).
+	 */
+	public IAVLNode select(int i)
+	{
+		if (i < 0 || i >= size())
+			return null;
+		AVLNode node = this.root;
+		while (true) {
+			int leftSize = ((AVLNode) node.getLeft()).getSize();
+			if (i < leftSize) {
+				node = (AVLNode) node.getLeft();
+			}
+			else if (i == leftSize) {
+				return node;
+			}
+			else {
+				i -= leftSize + 1;
+				node = (AVLNode) node.getRight();
+			}
+		}
+	}
+
+	/**
+	 * public int rank(int k)
+	 *
+	 * Returns the number of keys in the tree which are smaller than k,
+	 * so if k is in the tree then select(rank(k)).getKey() == k.
+	 * Uses the subtree sizes, O(log n).
+	 */
+	public int rank(int k)
+	{
+		return countSmaller(k, false);
+	}
+
+	/**
+	 * public int countInRange(int lo, int hi)
+	 *
+	 * Returns the number of keys x in the tree with lo <= x <= hi, or 0 if lo > hi.
+	 * Uses the subtree sizes, O(log n).
+	 */
+	public int countInRange(int lo, int hi)
+	{
+		if (lo > hi)
+			return 0;
+		return countSmaller(hi, true) - countSmaller(lo, false);
+	}
+
+	private int countSmaller(int k, boolean inclusive) { //number of keys < k (or <= k if inclusive)
+		int counter = 0;
+		IAVLNode node = this.root;
+		while (node != null && node.isRealNode()) {
+			if (k < node.getKey() || (k == node.getKey() && !inclusive)) {
+				node = node.getLeft();
+			}
+			else {
+				counter += ((AVLNode) node.getLeft()).getSize() + 1;
+				if (k == node.getKey()) //all the smaller keys are in the left subtree
+					return counter;
+				node = node.getRight();
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * public <A> A aggregate(Aggregator<A> aggregator, int lo, int hi)
+	 *
+	 * Returns the combination, in key order, of the items with lo <= key <= hi
+	 * (aggregator's identity if there are none), in O(log n) from the cached subtree aggregates.
+	 * Throws IllegalArgumentException if aggregator is not the one the tree was created with.
+	 */
+	@SuppressWarnings("unchecked")
+	public <A> A aggregate(Aggregator<A> aggregator, int lo, int hi)
+	{
+		if (aggregator == null || (Object) aggregator != this.aggregator)
+			throw new IllegalArgumentException("not the aggregator of this tree");
+		IAVLNode node = empty() ? VIRTUAL_LEAF : this.root;
+		while (node.isRealNode() && (node.getKey() < lo || node.getKey() > hi)) { //down to the highest node inside [lo, hi]
+			node = node.getKey() < lo ? node.getRight() : node.getLeft();
+		}
+		if (!node.isRealNode())
+			return aggregator.identity();
+		Object left = this.aggregator.identity(); //keys in [lo, node), found from right to left
+		for (IAVLNode x = node.getLeft(); x.isRealNode(); ) {
+			if (x.getKey() >= lo) { //x and its right subtree are inside
+				left = this.aggregator.combine(this.aggregator.combine(this.aggregator.lift(x.getKey(), x.getValue()), aggregateOf(x.getRight())), left);
+				x = x.getLeft();
+			}
+			else {
+				x = x.getRight();
+			}
+		}
+		Object right = this.aggregator.identity(); //keys in (node, hi], found from left to right
+		for (IAVLNode x = node.getRight(); x.isRealNode(); ) {
+			if (x.getKey() <= hi) { //x and its left subtree are inside
+				right = this.aggregator.combine(right, this.aggregator.combine(aggregateOf(x.getLeft()), this.aggregator.lift(x.getKey(), x.getValue())));
+				x = x.getRight();
+			}
+			else {
+				x = x.getLeft();
+			}
+		}
+		return (A) this.aggregator.combine(this.aggregator.combine(left, this.aggregator.lift(node.getKey(), node.getValue())), right);
+	}
+
+	/**
+	 * public IAVLNode floor(int k)
+	 *
+	 * Returns the node with the largest key <= k, or null if there is no such key.
+	 */
+	public IAVLNode floor(int k)
+	{
+		return navigate(k, true, true);
+	}
+
+	/**
+	 * public IAVLNode ceiling(int k)
+	 *
+	 * Returns the node with the smallest key >= k, or null if there is no such key.
+	 */
+	public IAVLNode ceiling(int k)
+	{
+		return navigate(k, false, true);
+	}
+
+	/**
+	 * public IAVLNode lower(int k)
+	 *
+	 * Returns the node with the largest key < k, or null if there is no such key.
+	 */
+	public IAVLNode lower(int k)
+	{
+		return navigate(k, true, false);
+	}
+
+	/**
+	 * public IAVLNode higher(int k)
+	 *
+	 * Returns the node with the smallest key > k, or null if there is no such key.
+	 */
+	public IAVLNode higher(int k)
+	{
+		return navigate(k, false, false);
+	}
+
+	private AVLNode navigate(int k, boolean below, boolean inclusive) { //closest node below (or above) k in one root-to-leaf walk
+		AVLNode candidate = null;
+		IAVLNode node = this.root;
+		while (node != null && node.isRealNode()) {
+			int key = node.getKey();
+			if (key == k && inclusive) {
+				return (AVLNode) node;
+			}
+			if (below ? key < k : key > k) { //node is a candidate, look for a closer one on the side of k
+				candidate = (AVLNode) node;
+				node = below ? node.getRight() : node.getLeft();
+			}
+			else {
+				node = below ? node.getLeft() : node.getRight();
+			}
+		}
+		return candidate;
+	}
+
+	/**
+	 * public Iterator<IAVLNode> cursor(int k)
+	 *
+	 * Returns a lazy in-order iterator over the nodes with keys >= k, in ascending order.
+	 * Finding the first node is O(log n), and every step after it is amortized O(1),
+	 * so reading m nodes costs O(log n + m).
+	 * The iterator must not be used after the tree was changed.
+	 */
+	public Iterator<IAVLNode> cursor(int k)
+	{
+		return new AVLCursor(navigate(k, false, true), Integer.MAX_VALUE, true);
+	}
+
+	/**
+	 * public Iterator<IAVLNode> descendingCursor(int k)
+	 *
+	 * Returns a lazy iterator over the nodes with keys <= k, in descending order.
+	 * Same costs and restrictions as cursor(k).
+	 */
+	public Iterator<IAVLNode> descendingCursor(int k)
+	{
+		return new AVLCursor(navigate(k, true, true), Integer.MIN_VALUE, false);
+	}
+
+	/**
+	 * public Iterator<IAVLNode> range(int lo, int hi)
+	 *
+	 * Returns a lazy iterator over the nodes with lo <= key <= hi, in ascending order.
+	 * Same costs and restrictions as cursor(k).
+	 */
+	public Iterator<IAVLNode> range(int lo, int hi)
+	{
+		return new AVLCursor(lo > hi ? null : navigate(lo, false, true), hi, true);
+	}
+
+	/**
+	 * public Iterator<IAVLNode> descendingRange(int lo, int hi)
+	 *
+	 * Returns a lazy iterator over the nodes with lo <= key <= hi, in descending order.
+	 * Same costs and restrictions as cursor(k).
+	 */
+	public Iterator<IAVLNode> descendingRange(int lo, int hi)
+	{
+		return new AVLCursor(lo > hi ? null : navigate(hi, true, true), lo, false);
+	}
+
 		
 	/**
 	 * public string split(int x)
 	 *
 	 * splits the tree into 2 trees according to the key x. 
 	 * Returns an array [t1, t2] with two AVL trees. keys(t1) < x < keys(t2).
+	 * This tree is left empty.
 	 * precondition: search(x) != null
 	 * postcondition: none
 	 */   
 	public AVLTree[] split(int x)
 	{
-		AVLNode node=TreePosition(x); // X in the tree because of precondition
-		AVLTree[] splited=new AVLTree[2];
-		AVLTree smaller=new AVLTree(); //builder t1
-		AVLTree bigger=new AVLTree(); //builder t2
-		AVLNode tmp_min=this.minNode; //saving min and max values before changing the tree
-		AVLNode tmp_max=this.maxNode;
-		AVLNode tmp_predecessor=predecessor(node);
-		AVLNode tmp_successor=successor(node);
-		smaller.maxNode=predecessor(node); // sets tmp min and max for smaller and bigger before changing them
-		smaller.minNode=this.minNode;
-		bigger.minNode=successor(node);
-		bigger.maxNode=this.maxNode;
-		if (!node.isLeaf()){ // take care on the node x
-			if(node.getLeft().isRealNode()) {
-				smaller.setRoot((AVLNode) node.getLeft());
-				node.setLeft(new AVLNode(node));
-			}
-			if(node.getRight().isRealNode()) {
-				bigger.setRoot((AVLNode) node.getRight());
-				node.setRight(new AVLNode(node));
-			}
-		}
-		node=(AVLNode) node.getParent();
-		AVLNode saveParent;
-		while(node!=null) { // starting joining from the parent of x
-			if(node.getKey()<x) {
-				AVLTree tmp=new AVLTree();
-				tmp.minNode=tmp_max; //sets tmp min and max tmp tree
-				tmp.maxNode=tmp_min;
-				if(node.getLeft().isRealNode()) {
-					tmp.setRoot((AVLNode) node.getLeft());
-					node.setLeft(new AVLNode(node));
-				}
-				node.setRight(new AVLNode(node));
-				saveParent = (AVLNode) node.getParent();
-				smaller.join(node,tmp);
-				node=saveParent;
-			}
-			else if(node.getKey()>x) {
-				AVLTree tmp=new AVLTree();
-				tmp.minNode=tmp_max; //sets tmp min and max tmp tree
-				tmp.maxNode=tmp_min;
-				if(node.getRight().isRealNode()) {
-					tmp.setRoot((AVLNode) node.getRight());
-					node.setRight(new AVLNode(node));
-				}
-				node.setLeft(new AVLNode(node));
-				saveParent = (AVLNode) node.getParent();
-				bigger.join(node,tmp);
-				node=saveParent;
-			}
-		}
-		smaller.maxNode=tmp_predecessor; //setting the min and max
-		smaller.minNode=tmp_min;
-		bigger.minNode=tmp_successor;
-		bigger.maxNode=tmp_max;
-		splited[0]=smaller;
-		splited[1]=bigger;
-		return splited;
+		AVLNode[] parts = new AVLNode[3];
+		int size = size();
+		int levels = splitNodes(empty() ? VIRTUAL_LEAF : this.root, x, parts); // joins the subtrees hanging off the path of x, O(log n) in all
+		if (this.metrics != null)
+			this.metrics.split(levels, size);
+		AVLTree smaller = new AVLTree(this.aggregator, this.arena); //builder t1
+		AVLTree bigger = new AVLTree(this.aggregator, this.arena); //builder t2
+		smaller.resetRoot(parts[0]);
+		bigger.resetRoot(parts[2]);
+		resetRoot(VIRTUAL_LEAF); // the nodes moved to the new trees
+		return new AVLTree[] {smaller, bigger};
 	}
 		
+	/**
+	 * public AVLTree extractRange(int lo, int hi)
+	 *
+	 * Removes the items with lo <= key <= hi from the tree and returns them as a new tree
+	 * (empty if lo > hi or there are none), with the same aggregator and arena.
+	 * Two splits and two joins of node subtrees: O(log n), whatever the number of items moved.
+	 */
+	public AVLTree extractRange(int lo, int hi)
+	{
+		AVLTree range = new AVLTree(this.aggregator, this.arena);
+		if (lo > hi || empty())
+			return range;
+		AVLNode[] parts = new AVLNode[3];
+		splitNodes(this.root, lo, parts);
+		AVLNode smaller = parts[0];
+		AVLNode loNode = parts[1];
+		splitNodes(parts[2], hi, parts);
+		AVLNode middle = parts[0];
+		if (loNode != null)
+			middle = joinNodes(VIRTUAL_LEAF, loNode, middle);
+		if (parts[1] != null) // the node of hi
+			middle = joinNodes(middle, parts[1], VIRTUAL_LEAF);
+		resetRoot(joinNodes(smaller, null, parts[2]));
+		range.resetRoot(middle);
+		return range;
+	}
+
+	/**
+	 * public int deleteRange(int lo, int hi)
+	 *
+	 * Deletes the items with lo <= key <= hi from the tree, in O(log n) like extractRange.
+	 * Returns the number of items deleted.
+	 */
+	public int deleteRange(int lo, int hi)
+	{
+		return extractRange(lo, hi).size();
+	}
+
 	/**
 	 * public join(IAVLNode x, AVLTree t)
 	 *
 	 * joins t and x with the tree. 	
 	 * Returns the complexity of the operation (rank difference between the tree and t)
+	 * x is linked in at the matching height on the spine of the higher tree, then rebalanced
+	 * upwards like an insertion, so the work is O(rank difference + 1).
+	 * Throws IllegalArgumentException if the trees have different aggregators.
 	 * precondition: keys(x,t) < keys() or keys(x,t) > keys()
 	 * postcondition: none
 	 */   
 	public int join(IAVLNode x, AVLTree t) //myTree is 'this' tree
 	{		
-		if (t.empty()) { // myTree can be empty or not
-			int heightDifference;
-			if(this.empty()) {
-				heightDifference = 1;
-			}
-			else {
-				heightDifference = this.getRoot().getHeight() + 1; //rank difference is myTree height
-			}
-			this.insert(x.getKey(), x.getValue()); //from preconditions we derive that x has a key -> only had it to myTree
-			return heightDifference; 
+		if (t.aggregator != this.aggregator)
+			throw new IllegalArgumentException("trees with different aggregators");
+		t.finger = null; // the shape changes
+		int myTreeHeight = this.empty() ? -1 : this.getRoot().getHeight();
+		int tTreeHeight = t.empty() ? -1 : t.getRoot().getHeight();
+		int complexity;
+		if (this.empty() || t.empty()) //rank difference is the height of the other tree
+			complexity = Math.max(Math.max(myTreeHeight, tTreeHeight), 0) + 1;
+		else
+			complexity = Math.abs(myTreeHeight - tTreeHeight) + 1;
+		AVLNode myTreeRoot = this.empty() ? VIRTUAL_LEAF : this.getRoot();
+		AVLNode tTreeRoot = t.empty() ? VIRTUAL_LEAF : t.getRoot();
+		boolean myTreeSmaller = !this.empty() ? myTreeRoot.getKey() < x.getKey() : t.empty() || x.getKey() < tTreeRoot.getKey();
+		if (myTreeSmaller) //keys(x,t) > keys()
+			resetRoot(joinNodes(myTreeRoot, (AVLNode) x, tTreeRoot)); // walks down the spine of the higher tree only
+		else //keys(x,t) < keys()
+			resetRoot(joinNodes(tTreeRoot, (AVLNode) x, myTreeRoot));
+		if (this.metrics != null)
+			this.metrics.join(complexity, size());
+		return complexity;
+	}
+
+	/**
+	 * public void union(AVLTree t)
+	 *
+	 * Makes this tree the union of itself and t, reusing the nodes of both; t is left empty.
+	 * For a key in both trees the info of this tree is kept.
+	 * Join-based: O(m log(n/m + 1)) work for sizes m <= n, with large halves
+	 * processed in parallel on the common ForkJoinPool.
+	 */
+	public void union(AVLTree t)
+	{
+		setOperation(UNION, t);
+	}
+
+	/**
+	 * public void intersection(AVLTree t)
+	 *
+	 * Keeps in this tree only the keys which are also in t, with this tree's info; t is left empty.
+	 * Same costs as union(t).
+	 */
+	public void intersection(AVLTree t)
+	{
+		setOperation(INTERSECTION, t);
+	}
+
+	/**
+	 * public void difference(AVLTree t)
+	 *
+	 * Removes from this tree all the keys of t; t is left empty.
+	 * Same costs as union(t).
+	 */
+	public void difference(AVLTree t)
+	{
+		setOperation(DIFFERENCE, t);
+	}
+
+	private void setOperation(int operation, AVLTree t) {
+		if (t == this)
+			return;
+		if (t.aggregator != this.aggregator)
+			throw new IllegalArgumentException("trees with different aggregators");
+		AVLNode first = this.empty() ? VIRTUAL_LEAF : this.root;
+		AVLNode second = t.empty() ? VIRTUAL_LEAF : t.root;
+		AVLNode result;
+		if (first.getSize() + second.getSize() > PARALLEL_THRESHOLD) {
+			result = ForkJoinPool.commonPool().invoke(new SetOperationTask(operation, first, second));
 		}
-		
-		if (this.empty()) { //t is not empty
-			int heightDifference = t.getRoot().getHeight() + 1; //rank difference is t tree height
-			t.insert(x.getKey(), x.getValue());
-			this.setRoot(t.getRoot());
-			this.minNode=t.minNode;
-			this.maxNode=t.maxNode;
-			return heightDifference;
-		}
-
-		else { //both trees are not empty
-			int myTreeKeys = this.getRoot().getKey();
-			int myTreeHeight = this.getRoot().getHeight();
-			int tTreeHeight = t.getRoot().getHeight();
-			int treeSize = 0;
-			AVLNode tmp;	
-			int counter = 1;		
-
-			if (x.getKey() > myTreeKeys) { //keys(x,t) > keys()
-				this.maxNode=t.maxNode; // the new max of the jointed tree is t.maxNode ( my max < t max)
-				if (myTreeHeight == tTreeHeight) {
-					x.setLeft(this.getRoot());
-					this.getRoot().setParent(x);
-					x.setRight(t.getRoot());
-					t.getRoot().setParent(x);
-					this.setRoot((AVLNode) x);
-					controlHeight(x); //change height of new tree
-					setNodeSize((AVLNode) x);
-					return 1; //rank difference = 0
-				}
-				else if (myTreeHeight < tTreeHeight) { // t is higher than my tree
-					tmp = t.getRoot();
-					while (tmp.getHeight() > myTreeHeight) {
-						tmp = (AVLNode) tmp.getLeft();
-						counter++;
-					}
-					x.setLeft(this.getRoot());
-					this.getRoot().setParent(x);
-					x.setRight(tmp);
-					x.setParent(tmp.getParent());
-					tmp.getParent().setLeft(x);
-					tmp.setParent(x);
-					treeSize = this.getRoot().getSize();
-					this.setRoot(t.getRoot());
-				}
-				else { //myTree is higher than t
-					tmp = this.getRoot();
-					while (tmp.getHeight() > tTreeHeight) {
-						tmp = (AVLNode) tmp.getRight();
-						counter++;
-					}
-					x.setRight(t.getRoot());
-					t.getRoot().setParent(x);
-					x.setLeft(tmp);
-					x.setParent(tmp.getParent());
-					tmp.getParent().setRight(x);
-					tmp.setParent(x);
-					treeSize = t.getRoot().getSize();
-				}
-			}
-			else { //keys(x,t) < keys()
-				this.minNode=t.minNode; // the new min of the jointed tree is t.minNode ( my min > t min)
-				if (myTreeHeight == tTreeHeight) {
-					x.setLeft(t.getRoot());
-					t.getRoot().setParent(x);
-					x.setRight(this.getRoot());
-					this.getRoot().setParent(x);
-					this.setRoot((AVLNode) x);
-					controlHeight(x); //change height of new tree
-					setNodeSize((AVLNode) x);
-					return 1; //rank difference = 0
-				}
-				if (myTreeHeight < tTreeHeight) { // t is higher than my tree
-					tmp = t.getRoot();
-					while (tmp.getHeight() > myTreeHeight) {
-						tmp = (AVLNode) tmp.getRight();
-						counter++;
-					}
-					x.setRight(this.getRoot());
-					this.getRoot().setParent(x);
-					x.setLeft(tmp);
-					x.setParent(tmp.getParent());
-					tmp.getParent().setRight(x);
-					tmp.setParent(x);
-					treeSize = this.getRoot().getSize();
-					this.setRoot(t.getRoot());
-				}
-				else { //myTree is higher than t
-					tmp = this.getRoot(); 
-					while (tmp.getHeight() > tTreeHeight) {
-						tmp = (AVLNode) tmp.getLeft();
-						counter++;
-					}
-					x.setLeft(t.getRoot());
-					t.getRoot().setParent(x);
-					x.setRight(tmp);
-					x.setParent(tmp.getParent());
-					tmp.getParent().setLeft(x);
-					tmp.setParent(x);	
-					treeSize = t.getRoot().getSize();
-				}
-			}
-			x.setHeight(Math.max(x.getLeft().getHeight(), x.getRight().getHeight()) + 1);			
-			controlSize(1 + treeSize, (AVLNode) x.getParent());
-			setNodeSize((AVLNode) x);
-			insertionRebalance((AVLNode) x.getParent());
-			return counter; 
+		else {
+			result = setOperation(operation, first, second);
+		}
+		t.resetRoot(VIRTUAL_LEAF);
+		resetRoot(result);
+	}
+
+	private AVLNode setOperation(int operation, AVLNode first, AVLNode second) { //sequential join-based set operation on detached subtrees
+		if (operation == UNION) {
+			if (!first.isRealNode())
+				return second;
+			if (!second.isRealNode())
+				return first;
+		}
+		else if (!first.isRealNode() || (operation == INTERSECTION && !second.isRealNode())) {
+			return VIRTUAL_LEAF;
 		}
+		else if (!second.isRealNode()) { //difference with an empty tree
+			return first;
+		}
+		AVLNode[] parts = new AVLNode[3];
+		AVLNode left;
+		AVLNode right;
+		if (operation == DIFFERENCE) { // split first by the root of second and drop the root's key
+			splitNodes(first, second.getKey(), parts);
+			left = setOperation(operation, parts[0], (AVLNode) second.getLeft());
+			right = setOperation(operation, parts[2], (AVLNode) second.getRight());
+			return joinNodes(left, null, right);
+		}
+		AVLNode firstLeft = (AVLNode) first.getLeft();
+		AVLNode firstRight = (AVLNode) first.getRight();
+		splitNodes(second, first.getKey(), parts); // split second by the root of first, the root of first holds the kept info
+		boolean found = parts[1] != null;
+		left = setOperation(operation, firstLeft, parts[0]);
+		right = setOperation(operation, firstRight, parts[2]);
+		if (operation == UNION || found)
+			return joinNodes(left, first, right);
+		return joinNodes(left, null, right);
+	}
+
+	/**
+	 * public AVLTreeMetrics enableMetrics()
+	 *
+	 * Starts counting rebalancing work, lookup path lengths, splits and joins of this tree,
+	 * and returns the counters (the same ones if already enabled). See AVLTreeMetrics.
+	 */
+	public AVLTreeMetrics enableMetrics()
+	{
+		if (this.metrics == null)
+			this.metrics = new AVLTreeMetrics(this);
+		return this.metrics;
+	}
+
+	/**
+	 * public AVLTreeMetrics metrics()
+	 *
+	 * Returns the counters of the tree, or null if metrics are not enabled.
+	 */
+	public AVLTreeMetrics metrics()
+	{
+		return this.metrics;
+	}
+
+	/**
+	 * public void disableMetrics()
+	 *
+	 * Stops counting; the tree is back to one null check per hook.
+	 */
+	public void disableMetrics()
+	{
+		this.metrics = null;
+	}
+
+	/**
+	 * public ValueArena arena()
+	 *
+	 * Returns the arena of the info of new nodes, or null if nodes keep their own Strings.
+	 */
+	public ValueArena arena()
+	{
+		return this.arena;
+	}
+
+	/**
+	 * public AVLTreeFilter enableFilter(int expectedKeys, double falsePositiveRate)
+	 *
+	 * Keeps a counting Bloom filter of the keys beside the tree, sized for expectedKeys keys (or the
+	 * current size if larger) at falsePositiveRate, so that search answers most missing keys without
+	 * walking the tree. Replaces an earlier filter. See AVLTreeFilter.
+	 * The filter is built here, in O(n); with it, split, join and the range and set operations
+	 * rebuild it in O(n) too.
+	 * Throws IllegalArgumentException unless 0 < falsePositiveRate < 1.
+	 */
+	public AVLTreeFilter enableFilter(int expectedKeys, double falsePositiveRate)
+	{
+		this.filter = new AVLTreeFilter(this, expectedKeys, falsePositiveRate);
+		return this.filter;
+	}
+
+	/**
+	 * public AVLTreeFilter filter()
+	 *
+	 * Returns the filter of the tree, or null if there is none.
+	 */
+	public AVLTreeFilter filter()
+	{
+		return this.filter;
+	}
+
+	/**
+	 * public void disableFilter()
+	 *
+	 * Drops the filter; every search walks the tree again.
+	 */
+	public void disableFilter()
+	{
+		this.filter = null;
 	}
 
 	/**
@@ -523,6 +1034,12 @@ public class AVLTree {
 		return this.root;
 	}
 
+	private AVLNode newNode(int key, String info, int height, AVLNode right, AVLNode left, AVLNode parent, int size) { //in the arena if the tree has one
+		if (this.arena == null || info == null)
+			return new AVLNode(key, info, height, right, left, parent, size);
+		return new ArenaNode(key, this.arena.add(info), height, right, left, parent, size);
+	}
+
 	private void setRoot(AVLNode node)
 	{
 		if(node!=null) {
@@ -530,18 +1047,31 @@ public class AVLTree {
 		}
 		this.root=node;
 	}
-	private void setNodeSize(AVLNode x) { //defines the size of a specific node by his children
+	private void setNodeSize(AVLNode x) { //defines the size (and aggregate) of a specific node by his children
 		x.setSize(((AVLNode) x.getLeft()).getSize() + ((AVLNode) x.getRight()).getSize() +1);
+		updateAggregate(x);
 	}
 	
-	private void controlSize(int m, AVLNode node) { //Change Size to all of node ancestors by a factor of m
+	private void controlSize(int m, AVLNode node) { //Change Size to all of node ancestors by a factor of m, and recompute their aggregates
 		AVLNode currNode = node;
 		while (currNode != null) {
 			currNode.setSize(currNode.getSize() + m);
+			updateAggregate(currNode);
 			currNode = (AVLNode) currNode.getParent();
 		}
 	}
 
+	private void updateAggregate(AVLNode node) { //recomputes the aggregate of node from its children
+		if (this.aggregator == null)
+			return;
+		node.aggregate = this.aggregator.combine(this.aggregator.combine(aggregateOf(node.getLeft()),
+				this.aggregator.lift(node.getKey(), node.getValue())), aggregateOf(node.getRight()));
+	}
+
+	private Object aggregateOf(IAVLNode node) { //the virtual leaf is shared by all trees, so it holds no aggregate
+		return node.isRealNode() ? ((AVLNode) node).aggregate : this.aggregator.identity();
+	}
+
 	private void controlHeight(IAVLNode node) { //Change height to all of node ancestors by a factor of k
 		IAVLNode currNode = node;
 		while (currNode != null) {
@@ -550,41 +1080,56 @@ public class AVLTree {
 		}
 	}
 	
-	private static void promote(AVLNode node) { //add '1' to height of node
+	private void promote(AVLNode node) { //add '1' to height of node
 		node.setHeight(node.getHeight() + 1);
+		if (this.metrics != null)
+			this.metrics.promote();
 	}
 
-	private static void demote(AVLNode node) { //reduce height of node by '1'
+	private void demote(AVLNode node) { //reduce height of node by '1'
 		node.setHeight(node.getHeight() - 1);
+		if (this.metrics != null)
+			this.metrics.demote();
+	}
+
+	private void recordDoubleRotation() { //the two single rotations count themselves
+		if (this.metrics != null)
+			this.metrics.doubleRotation();
 	}
 
-	private static String archCalc(AVLNode node) { //calculates arches difference and returns a string with left arch in first char and right arch in second char
+	private static void setParentOf(IAVLNode child, IAVLNode parent) { //virtual leaves are shared, so only real nodes keep a parent
+		if (child.isRealNode()) {
+			child.setParent(parent);
+		}
+	}
+
+	private static int archCalc(AVLNode node) { //calculates arches difference without allocating: left arch in tens digit, right arch in units digit ("21" -> 21, "02" -> 2)
 		int leftArch = node.getHeight() - node.getLeft().getHeight();
 		int rightArch = node.getHeight() - node.getRight().getHeight();
-		return leftArch+""+rightArch;
+		return leftArch * 10 + rightArch;
 	}
 
 	private int insertionRebalance(AVLNode node) { //the input node is the position in tree which was connected our new node
 		int counter = 0;
 		AVLNode currNode = node;
-		if (node.hasTwoChildren()) {
-			controlHeight(currNode);
+		if (node.hasTwoChildren()) { // the height of node is unchanged
 			return 0;
 		}
-		String archDifference = archCalc(currNode);
-		while (currNode != null && (!archDifference.equals("11") && !archDifference.equals("12") && !archDifference.equals("21"))) { //all valid cases
-			if((archDifference.equals("01")) || (archDifference.equals("10"))) {
+		int archDifference = archCalc(currNode);
+		while (currNode != null && archDifference != 11 && archDifference != 12 && archDifference != 21) { //all valid cases
+			if(archDifference == 1 || archDifference == 10) {
 				promote(currNode);
 				counter++;
 			}
 			else { // one arch is '0' and the other is '2'
-				if (archDifference.equals("02")) {
-					if (archCalc((AVLNode) currNode.getLeft()).equals("12")) { //calculates arches difference of child with '0' arch
+				if (archDifference == 2) {
+					if (archCalc((AVLNode) currNode.getLeft()) == 12) { //calculates arches difference of child with '0' arch
 						this.rotateRight((AVLNode) currNode.getLeft());
 						demote(currNode);
 						counter+= 2;
 					}
 					else { //arch string of child with '0' arch equals "21"
+						recordDoubleRotation();
 						rotateLeft((AVLNode) currNode.getLeft().getRight());
 						demote((AVLNode) currNode.getLeft().getLeft());
 						this.rotateRight((AVLNode) currNode.getLeft());
@@ -593,13 +1138,14 @@ public class AVLTree {
 						counter+= 5;
 					}
 				}
-				else { // archCalc(currNode).equals("20") - the symmetric situation
-					if (archCalc((AVLNode) currNode.getRight()).equals("21")) { //calculates arches difference of child with '0' arch
+				else { // archCalc(currNode) == 20 - the symmetric situation
+					if (archCalc((AVLNode) currNode.getRight()) == 21) { //calculates arches difference of child with '0' arch
 						this.rotateLeft((AVLNode) currNode.getRight());
 						demote(currNode);
 						counter+= 2;
 					}
 					else { //arch string of child with '0' arch equals "12"
+						recordDoubleRotation();
 						rotateRight((AVLNode) currNode.getRight().getLeft());
 						demote((AVLNode) currNode.getRight().getRight());
 						this.rotateLeft((AVLNode) currNode.getRight());
@@ -615,21 +1161,29 @@ public class AVLTree {
 				archDifference = archCalc(currNode);
 			}
 		}
-		if (currNode != null) {
-			controlHeight(currNode);
-		}
+		refreshHeights(currNode);
 		return counter;
 	}
+
+	private void refreshHeights(AVLNode node) { //like controlHeight, but stops at the first unchanged height: nothing above it changed either
+		while (node != null) {
+			int height = Math.max(node.getLeft().getHeight(), node.getRight().getHeight()) + 1;
+			if (height == node.getHeight())
+				return;
+			node.setHeight(height);
+			node = (AVLNode) node.getParent();
+		}
+	}
 	
 	private int deleteBalancing(AVLNode node) { //get the parent of that the deleted node
 		if(node==null) { // we deleted a the entire tree, last delete was the root
-			String rootArch=archCalc(getRoot());
-			if(rootArch.equals("21") | rootArch.equals("12")|rootArch.equals("11")) // checks if root is OK
+			int rootArch=archCalc(getRoot());
+			if(rootArch == 21 || rootArch == 12 || rootArch == 11) // checks if root is OK
 				return 0;
 			return deleteBalancing(getRoot());
 		}
-		String myArch=archCalc(node);
-		if(node.hasTwoChildren() && (myArch.equals("21") | myArch.equals("12")|myArch.equals("11"))) { // has two children with valid arches
+		int myArch=archCalc(node);
+		if(node.hasTwoChildren() && (myArch == 21 || myArch == 12 || myArch == 11)) { // has two children with valid arches
 			controlHeight(node);
 			return 0;
 		}
@@ -645,26 +1199,27 @@ public class AVLTree {
 			demote(node);
 			return 1+deleteBalancing((AVLNode) node.getParent()); //case 1
 		}
-		else if(myArch.equals("22")) { // "22" arches
+		else if(myArch == 22) { // "22" arches
 			demote(node);
 			return 1+deleteBalancing((AVLNode) node.getParent()); //case 1
 		}
-		else if(myArch.equals("31")) { // "31" arches
-			String sonArch=archCalc((AVLNode) node.getRight());
-			if(sonArch.equals("11")) { //case 2
+		else if(myArch == 31) { // "31" arches
+			int sonArch=archCalc((AVLNode) node.getRight());
+			if(sonArch == 11) { //case 2
 				demote(node);
 				promote((AVLNode) node.getRight());
 				rotateLeft((AVLNode) node.getRight());
 				controlHeight(node);
 				return 3;
 			}
-			else if(sonArch.equals("21")) {//case 3
+			else if(sonArch == 21) {//case 3
 				demote(node);
 				demote(node);
 				rotateLeft((AVLNode) node.getRight());
 				return 3 + deleteBalancing((AVLNode) node.getParent().getParent());
 			}
 			else {//case 4
+				recordDoubleRotation();
 				demote(node); 
 				demote(node);
 				demote((AVLNode) node.getRight());
@@ -674,22 +1229,23 @@ public class AVLTree {
 				return 6 + deleteBalancing((AVLNode) node.getParent().getParent()); 
 			}
 		}
-		else if(myArch.equals("13")) { // has two children with "13" arches
-			String sonArch=archCalc((AVLNode) node.getLeft());
-			if(sonArch.equals("11")) { //case 2 symmetric
+		else if(myArch == 13) { // has two children with "13" arches
+			int sonArch=archCalc((AVLNode) node.getLeft());
+			if(sonArch == 11) { //case 2 symmetric
 				demote(node);
 				promote((AVLNode) node.getLeft());
 				rotateRight((AVLNode) node.getLeft());
 				controlHeight(node);
 				return 3;
 			}
-			else if(sonArch.equals("12")) {//case 3 symmetric
+			else if(sonArch == 12) {//case 3 symmetric
 				demote(node);  
 				demote(node);
 				rotateRight((AVLNode) node.getLeft());
 				return 3 + deleteBalancing((AVLNode) node.getParent().getParent()); 
 			}
 			else {//case 4 symmetric
+				recordDoubleRotation();
 				demote(node);  
 				demote(node);
 				demote((AVLNode) node.getLeft());
@@ -708,7 +1264,7 @@ public class AVLTree {
 		AVLNode parent=(AVLNode) node.getParent();
 		AVLNode tmp=(AVLNode) node.getRight();
 		AVLNode grandpa=(AVLNode) parent.getParent();
-		tmp.setParent(parent);
+		setParentOf(tmp, parent);
 		parent.setLeft(tmp);
 		node.setRight(parent);
 		node.setParent(grandpa);
@@ -724,7 +1280,11 @@ public class AVLTree {
 		}
 		parent.setParent(node);
 		node.setSize(parent.getSize()); // set size field on rotation
+		node.aggregate = parent.aggregate; // the same items
 		parent.setSize(((AVLNode)parent.getLeft()).getSize()+((AVLNode)parent.getRight()).getSize()+1);
+		updateAggregate(parent);
+		if (this.metrics != null)
+			this.metrics.rotation();
 	}
 
 	private void rotateLeft(AVLNode node) { //rotate left when node go up
@@ -733,7 +1293,7 @@ public class AVLTree {
 		AVLNode parent=(AVLNode) node.getParent();
 		AVLNode tmp=(AVLNode) node.getLeft();
 		AVLNode grandpa=(AVLNode) parent.getParent();
-		tmp.setParent(parent);
+		setParentOf(tmp, parent);
 		parent.setRight(tmp);
 		node.setLeft(parent);
 		node.setParent(grandpa);
@@ -749,12 +1309,160 @@ public class AVLTree {
 		}
 		parent.setParent(node);
 		node.setSize(parent.getSize()); // set size field on rotation
+		node.aggregate = parent.aggregate; // the same items
 		parent.setSize(((AVLNode)parent.getRight()).getSize()+((AVLNode)parent.getLeft()).getSize()+1);
+		updateAggregate(parent);
+		if (this.metrics != null)
+			this.metrics.rotation();
+	}
+
+	private void updateNode(AVLNode node) { //recomputes height, size and aggregate of node from its children
+		node.setHeight(Math.max(node.getLeft().getHeight(), node.getRight().getHeight()) + 1);
+		node.setSize(((AVLNode) node.getLeft()).getSize() + ((AVLNode) node.getRight()).getSize() + 1);
+		updateAggregate(node);
+	}
+
+	private AVLNode link(AVLNode left, AVLNode x, AVLNode right) { //makes left and right the children of x
+		x.setLeft(left);
+		x.setRight(right);
+		setParentOf(left, x);
+		setParentOf(right, x);
+		updateNode(x);
+		return x;
+	}
+
+	private AVLNode rotateSubtreeLeft(AVLNode node) { //the right child of a detached subtree root goes up, returns the new root
+		AVLNode child = (AVLNode) node.getRight();
+		node.setRight(child.getLeft());
+		setParentOf(child.getLeft(), node);
+		child.setLeft(node);
+		node.setParent(child);
+		updateNode(node);
+		updateNode(child);
+		if (this.metrics != null)
+			this.metrics.rotation();
+		return child;
+	}
+
+	private AVLNode rotateSubtreeRight(AVLNode node) { //the left child of a detached subtree root goes up, returns the new root
+		AVLNode child = (AVLNode) node.getLeft();
+		node.setLeft(child.getRight());
+		setParentOf(child.getRight(), node);
+		child.setRight(node);
+		node.setParent(child);
+		updateNode(node);
+		updateNode(child);
+		if (this.metrics != null)
+			this.metrics.rotation();
+		return child;
+	}
+
+	private AVLNode joinNodes(AVLNode left, AVLNode x, AVLNode right) { //joins detached subtrees, keys(left) < x < keys(right); x may be null
+		if (x == null) { //join without a middle node: take it from the end of left
+			if (!left.isRealNode())
+				return right;
+			if (!right.isRealNode())
+				return left;
+			AVLNode[] parts = new AVLNode[2];
+			splitLast(left, parts);
+			return joinNodes(parts[0], parts[1], right);
+		}
+		int leftHeight = left.getHeight();
+		int rightHeight = right.getHeight();
+		if (leftHeight > rightHeight + 1)
+			return joinRight(left, x, right);
+		if (rightHeight > leftHeight + 1)
+			return joinLeft(left, x, right);
+		return link(left, x, right);
+	}
+
+	private AVLNode joinRight(AVLNode left, AVLNode x, AVLNode right) { //left is higher: x goes down the right spine of left
+		AVLNode spine = (AVLNode) left.getRight();
+		AVLNode joined;
+		if (spine.getHeight() <= right.getHeight() + 1) {
+			joined = link(spine, x, right);
+			if (joined.getHeight() > left.getLeft().getHeight() + 1) { //double rotation
+				recordDoubleRotation();
+				joined = rotateSubtreeRight(joined);
+			}
+		}
+		else {
+			joined = joinRight(spine, x, right);
+		}
+		left.setRight(joined);
+		joined.setParent(left);
+		updateNode(left);
+		if (joined.getHeight() > left.getLeft().getHeight() + 1)
+			return rotateSubtreeLeft(left);
+		return left;
+	}
+
+	private AVLNode joinLeft(AVLNode left, AVLNode x, AVLNode right) { //right is higher: x goes down the left spine of right
+		AVLNode spine = (AVLNode) right.getLeft();
+		AVLNode joined;
+		if (spine.getHeight() <= left.getHeight() + 1) {
+			joined = link(left, x, spine);
+			if (joined.getHeight() > right.getRight().getHeight() + 1) { //double rotation
+				recordDoubleRotation();
+				joined = rotateSubtreeLeft(joined);
+			}
+		}
+		else {
+			joined = joinLeft(left, x, spine);
+		}
+		right.setLeft(joined);
+		joined.setParent(right);
+		updateNode(right);
+		if (joined.getHeight() > right.getRight().getHeight() + 1)
+			return rotateSubtreeRight(right);
+		return right;
+	}
+
+	private void splitLast(AVLNode node, AVLNode[] parts) { //parts = [node's subtree without its maximum, the maximum]
+		if (!node.getRight().isRealNode()) {
+			parts[0] = (AVLNode) node.getLeft();
+			parts[1] = node;
+			return;
+		}
+		AVLNode left = (AVLNode) node.getLeft();
+		splitLast((AVLNode) node.getRight(), parts);
+		parts[0] = joinNodes(left, node, parts[0]);
+	}
+
+	private int splitNodes(AVLNode node, int k, AVLNode[] parts) { //parts = [keys < k, node of k or null, keys > k] of a detached subtree, returns the levels walked
+		if (!node.isRealNode()) {
+			parts[0] = VIRTUAL_LEAF;
+			parts[1] = null;
+			parts[2] = VIRTUAL_LEAF;
+			return 0;
+		}
+		AVLNode left = (AVLNode) node.getLeft();
+		AVLNode right = (AVLNode) node.getRight();
+		int levels;
+		if (k == node.getKey()) {
+			parts[0] = left;
+			parts[1] = node;
+			parts[2] = right;
+			return 1;
+		}
+		else if (k < node.getKey()) {
+			levels = splitNodes(left, k, parts);
+			parts[2] = joinNodes(parts[2], node, right);
+		}
+		else {
+			levels = splitNodes(right, k, parts);
+			parts[0] = joinNodes(left, node, parts[0]);
+		}
+		return levels + 1;
 	}
 
 	private AVLNode TreePosition (int k) { // if key in tree, return his node. else return his parent.
+		return TreePosition(getRoot(), k);
+	}
+
+	private AVLNode TreePosition (AVLNode start, int k) { // TreePosition within the subtree of start, which must hold k's position
 
-		IAVLNode xPointer = getRoot();
+		IAVLNode xPointer = start;
 		IAVLNode yPointer = xPointer;
 		while (xPointer.isRealNode()) {
 			yPointer = xPointer;
@@ -771,6 +1479,46 @@ public class AVLTree {
 		return (AVLNode) yPointer;
 	}
 	
+	private AVLNode fingerPosition(int k) { // TreePosition starting from the finger if k is near it, else from the root
+		if (k > this.maxNode.getKey() || k < this.minNode.getKey()) { // k goes beside the maximum or minimum, as increasing keys do (minNode and maxNode are exact)
+			if (this.metrics != null)
+				this.metrics.path(1);
+			return k > this.maxNode.getKey() ? this.maxNode : this.minNode;
+		}
+		AVLNode node = this.finger;
+		int climb = 0;
+		if (node == null) {
+			node = getRoot();
+		}
+		else if (k != node.getKey()) {
+			boolean above = k > node.getKey();
+			AVLNode parent = (AVLNode) node.getParent();
+			// climb until a child on the side of k whose parent is beyond k: k is in its subtree
+			while (parent != null && (above ? parent.getRight() == node || parent.getKey() <= k : parent.getLeft() == node || parent.getKey() >= k)) {
+				if (climb == FINGER_CLIMB) { // k is far from the finger: climbing further costs more than starting at the root
+					node = getRoot();
+					break;
+				}
+				node = parent;
+				parent = (AVLNode) node.getParent();
+				climb++;
+			}
+		}
+		AVLNode position = TreePosition(node, k);
+		if (this.metrics != null) // nodes on the climb from the finger and the descent from node
+			this.metrics.path(climb + stepsUp(position, node) + 1);
+		return position;
+	}
+
+	private static int stepsUp(AVLNode node, AVLNode ancestor) { //parent steps from node up to its ancestor
+		int steps = 0;
+		while (node != ancestor) {
+			node = (AVLNode) node.getParent();
+			steps++;
+		}
+		return steps;
+	}
+
 	private AVLNode successor(IAVLNode node)  { //returns node of successor as seen in class
 		if (node.getRight().isRealNode()) {
 			return (AVLNode) ((AVLNode)node.getRight()).minNode();
@@ -795,6 +1543,176 @@ public class AVLTree {
 		return (AVLNode) parent;
 	}
 	
+	/**
+	 * private class AVLCursor
+	 *
+	 * In-order iterator between a first node and a bound key, walking with successor/predecessor.
+	 */
+	private class AVLCursor implements Iterator<IAVLNode> {
+
+		private AVLNode next;
+		private final int bound;
+		private final boolean ascending;
+
+		AVLCursor(AVLNode first, int bound, boolean ascending) {
+			this.bound = bound;
+			this.ascending = ascending;
+			this.next = inBound(first) ? first : null;
+		}
+
+		public boolean hasNext() {
+			return this.next != null;
+		}
+
+		public IAVLNode next() {
+			if (this.next == null)
+				throw new NoSuchElementException();
+			AVLNode current = this.next;
+			AVLNode following = this.ascending ? successor(current) : predecessor(current);
+			this.next = inBound(following) ? following : null;
+			return current;
+		}
+
+		private boolean inBound(AVLNode node) {
+			if (node == null)
+				return false;
+			return this.ascending ? node.getKey() <= this.bound : node.getKey() >= this.bound;
+		}
+	}
+
+	/**
+	 * private class BuildTask
+	 *
+	 * Bulk builder task: builds keys[from..to], forking the left half.
+	 */
+	private class BuildTask extends RecursiveTask<AVLNode> {
+
+		private static final long serialVersionUID = 1L; // ForkJoinTask is Serializable, the task is never serialized
+
+		private final int[] keys;
+		private final String[] infos;
+		private final int from;
+		private final int to;
+
+		BuildTask(int[] keys, String[] infos, int from, int to) {
+			this.keys = keys;
+			this.infos = infos;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected AVLNode compute() {
+			if (this.to - this.from < PARALLEL_THRESHOLD)
+				return buildSubtree(this.keys, this.infos, this.from, this.to);
+			int mid = (this.from + this.to) >>> 1;
+			BuildTask left = new BuildTask(this.keys, this.infos, this.from, mid - 1);
+			left.fork();
+			AVLNode right = new BuildTask(this.keys, this.infos, mid + 1, this.to).compute();
+			return connect(left.join(), this.keys[mid], this.infos[mid], right);
+		}
+	}
+
+	/**
+	 * private class ExportTask
+	 *
+	 * Export task: writes the subtree of node from offset on, forking the left subtree.
+	 */
+	private class ExportTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L; // ForkJoinTask is Serializable, the task is never serialized
+
+		private final AVLNode node;
+		private final int[] keys;
+		private final String[] infos;
+		private final int offset;
+
+		ExportTask(AVLNode node, int[] keys, String[] infos, int offset) {
+			this.node = node;
+			this.keys = keys;
+			this.infos = infos;
+			this.offset = offset;
+		}
+
+		protected void compute() {
+			if (this.node.getSize() < PARALLEL_THRESHOLD) {
+				exportSubtree(this.node, this.keys, this.infos, this.offset);
+				return;
+			}
+			AVLNode left = (AVLNode) this.node.getLeft();
+			int position = this.offset + left.getSize(); // in-order place of node
+			ExportTask leftTask = new ExportTask(left, this.keys, this.infos, this.offset);
+			leftTask.fork();
+			if (this.keys != null)
+				this.keys[position] = this.node.getKey();
+			if (this.infos != null)
+				this.infos[position] = this.node.getValue();
+			new ExportTask((AVLNode) this.node.getRight(), this.keys, this.infos, position + 1).compute();
+			leftTask.join();
+		}
+	}
+
+	/**
+	 * private class SetOperationTask
+	 *
+	 * Join-based union, intersection or difference of two detached subtrees,
+	 * forking the left half while it is large enough.
+	 */
+	private class SetOperationTask extends RecursiveTask<AVLNode> {
+
+		private static final long serialVersionUID = 1L; // ForkJoinTask is Serializable, the task is never serialized
+
+		private final int operation;
+		private final AVLNode first;
+		private final AVLNode second;
+
+		SetOperationTask(int operation, AVLNode first, AVLNode second) {
+			this.operation = operation;
+			this.first = first;
+			this.second = second;
+		}
+
+		protected AVLNode compute() {
+			if (this.first.getSize() + this.second.getSize() <= PARALLEL_THRESHOLD
+					|| !this.first.isRealNode() || !this.second.isRealNode())
+				return setOperation(this.operation, this.first, this.second);
+			AVLNode[] parts = new AVLNode[3];
+			AVLNode pivot = this.operation == DIFFERENCE ? this.second : this.first;
+			AVLNode pivotLeft = (AVLNode) pivot.getLeft();
+			AVLNode pivotRight = (AVLNode) pivot.getRight();
+			boolean keep;
+			SetOperationTask left;
+			SetOperationTask right;
+			if (this.operation == DIFFERENCE) { // split first by the root of second and drop the root's key
+				splitNodes(this.first, pivot.getKey(), parts);
+				left = new SetOperationTask(this.operation, parts[0], pivotLeft);
+				right = new SetOperationTask(this.operation, parts[2], pivotRight);
+				keep = false;
+			}
+			else { // split second by the root of first, the root of first holds the kept info
+				splitNodes(this.second, pivot.getKey(), parts);
+				left = new SetOperationTask(this.operation, pivotLeft, parts[0]);
+				right = new SetOperationTask(this.operation, pivotRight, parts[2]);
+				keep = this.operation == UNION || parts[1] != null;
+			}
+			left.fork();
+			AVLNode rightResult = right.compute();
+			return joinNodes(left.join(), keep ? pivot : null, rightResult);
+		}
+	}
+
+	/**
+	 * public interface Aggregator<A>
+	 *
+	 * A monoid over the items of a tree: combine must be associative, with identity as its neutral element.
+	 * lift turns one item into a value; a tree created with an aggregator keeps in every node
+	 * the combination of its subtree's items in key order (sum, min, max, count of non-null info, ...).
+	 */
+	public interface Aggregator<A>{
+		public A identity(); //the aggregate of no items
+		public A lift(int key, String info); //the aggregate of one item
+		public A combine(A left, A right); //the aggregate of the items of left followed by those of right
+	}
+
 	/**
 	 * public interface IAVLNode
 	 * ! Do not delete or modify this - otherwise all tests will fail !
@@ -832,6 +1750,7 @@ public class AVLTree {
 		private AVLNode left;
 		private AVLNode parent;
 		private int size;
+		private Object aggregate; // the tree's aggregator over this subtree, or null
 
 		public AVLNode(int key,String info,int height,AVLNode right,AVLNode left,AVLNode parent,int size) { // Full builder
 			this.key=key;
@@ -855,6 +1774,10 @@ public class AVLTree {
 		{
 			return this.info;
 		}
+		public ByteBuffer getValueBytes() // the info as read-only UTF-8 bytes, or null
+		{
+			return this.info == null ? null : ByteBuffer.wrap(this.info.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+		}
 		public void setLeft(IAVLNode node)
 		{
 			this.left=(AVLNode) node;
@@ -952,5 +1875,75 @@ public class AVLTree {
 			return false;
 		}
 	}
-}
 
+	/**
+	 * private class ArenaNode
+	 *
+	 * A node whose info lives in the arena of the tree that created it, by offset; its String
+	 * field stays null. The arena is the creating tree's, so the node may move to other trees.
+	 */
+	private class ArenaNode extends AVLNode {
+
+		private final int value; // offset of the info in AVLTree.this.arena
+
+		ArenaNode(int key, int value, int height, AVLNode right, AVLNode left, AVLNode parent, int size) {
+			super(key, null, height, right, left, parent, size);
+			this.value = value;
+		}
+
+		@Override
+		public String getValue()
+		{
+			return AVLTree.this.arena.get(this.value);
+		}
+
+		@Override
+		public ByteBuffer getValueBytes()
+		{
+			return AVLTree.this.arena.view(this.value);
+		}
+	}
+
+	/**
+	 * private class VirtualLeaf
+	 *
+	 * The virtual leaf shared by all trees. It is reachable through getLeft and getRight of every
+	 * tree, so its setters throw UnsupportedOperationException instead of changing all trees at once.
+	 */
+	private class VirtualLeaf extends AVLNode {
+
+		VirtualLeaf() {
+			super(null);
+		}
+
+		@Override
+		public void setLeft(IAVLNode node)
+		{
+			throw new UnsupportedOperationException("virtual leaf");
+		}
+
+		@Override
+		public void setRight(IAVLNode node)
+		{
+			throw new UnsupportedOperationException("virtual leaf");
+		}
+
+		@Override
+		public void setParent(IAVLNode node)
+		{
+			throw new UnsupportedOperationException("virtual leaf");
+		}
+
+		@Override
+		public void setHeight(int height)
+		{
+			throw new UnsupportedOperationException("virtual leaf");
+		}
+
+		@Override
+		protected void setSize(int size)
+		{
+			throw new UnsupportedOperationException("virtual leaf");
+		}
+	}
+}
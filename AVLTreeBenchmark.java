@@ -0,0 +1,667 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * AVLTreeBenchmark
+ * Small stand-alone benchmarks for AVLTree, runnable with plain javac/java:
+ *   javac *.java && java AVLTreeBenchmark [scenario]
+ */
+public class AVLTreeBenchmark {
+
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	public static void main(String[] args) {
+		String scenario = args.length > 0 ? args[0] : "all";
+		if (scenario.equals("all") || scenario.equals("alloc"))
+			allocation(1 << 16, 1 << 20);
+		if (scenario.equals("all") || scenario.equals("concurrent"))
+			concurrentReads(1 << 20, 95, 1000);
+		if (scenario.equals("all") || scenario.equals("map"))
+			concurrentMaps(1 << 20, new int[] {100, 90, 50}, 1000);
+		if (scenario.equals("all") || scenario.equals("journal"))
+			journal(new int[] {1, 16, 256, 4096}, 1000);
+		if (scenario.equals("all") || scenario.equals("finger"))
+			fingerStreams(1 << 20);
+		if (scenario.equals("all") || scenario.equals("frozen"))
+			frozenSearch(new int[] {1 << 10, 1 << 16, 1 << 22});
+		if (scenario.equals("all") || scenario.equals("suite"))
+			suite(new int[] {1 << 10, 1 << 14, 1 << 18});
+		if (scenario.equals("all") || scenario.equals("sharded"))
+			shardedWrites(1 << 20, 50, 1000);
+		if (scenario.equals("all") || scenario.equals("batched"))
+			batchedWrites(1 << 20, 32, 1000);
+		if (scenario.equals("all") || scenario.equals("filter"))
+			filteredSearch(new int[] {1 << 16, 1 << 20}, 70, new double[] {0.05, 0.01, 0.001});
+		if (scenario.equals("all") || scenario.equals("arena"))
+			arenaMemory(1 << 20, new int[] {16, 1 << 12, 1 << 20});
+	}
+
+	/**
+	 * public static void allocation(int treeSize, int operations)
+	 *
+	 * Measures the bytes allocated by steady-state insert and delete on a tree of treeSize keys.
+	 * Every round inserts a fresh key and deletes an old one, so the tree size stays fixed.
+	 * Expected: insert allocates exactly one AVLNode, delete allocates nothing.
+	 */
+	public static void allocation(int treeSize, int operations) {
+		int[] keys = shuffledKeys(treeSize + operations, 1);
+		String[] infos = new String[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			infos[i] = Integer.toString(keys[i]);
+		}
+		AVLTree tree = new AVLTree();
+		for (int i = 0; i < treeSize; i++) {
+			tree.insert(keys[i], infos[i]);
+		}
+		for (int round = 0; round < 3; round++) { // warm up, then measure the last round
+			AVLTree warm = new AVLTree();
+			for (int i = 0; i < treeSize; i++) {
+				warm.insert(keys[i], infos[i]);
+			}
+			for (int i = 0; i < treeSize; i++) {
+				warm.delete(keys[i]);
+			}
+		}
+		long insertBytes = 0;
+		long deleteBytes = 0;
+		long before;
+		for (int i = 0; i < operations; i++) {
+			before = allocatedBytes();
+			tree.insert(keys[treeSize + i], infos[treeSize + i]);
+			insertBytes += allocatedBytes() - before;
+			before = allocatedBytes();
+			tree.delete(keys[i]);
+			deleteBytes += allocatedBytes() - before;
+		}
+		long probe = allocatedBytes(); // cost of the measurement itself
+		long probeBytes = allocatedBytes() - probe;
+		System.out.printf("alloc: tree=%d ops=%d insert=%.1f B/op delete=%.1f B/op (probe overhead %d B)%n",
+				treeSize, operations, (double) insertBytes / operations - probeBytes,
+				(double) deleteBytes / operations - probeBytes, probeBytes);
+	}
+
+	/**
+	 * public static void concurrentReads(int keyRange, int readPercent, long millis)
+	 *
+	 * Throughput of a mixed workload (readPercent% search, the rest insert/delete) over keys in [0, keyRange),
+	 * for 1, 2, 4, ... threads up to the number of cores: a synchronized AVLTree against ConcurrentAVLTree.
+	 */
+	public static void concurrentReads(int keyRange, int readPercent, long millis) {
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= cores; threads = threads < cores ? Math.min(threads * 2, cores) : threads + 1) {
+			AVLTree plain = new AVLTree();
+			ConcurrentAVLTree concurrent = new ConcurrentAVLTree();
+			for (int k = 0; k < keyRange; k += 2) {
+				plain.insert(k, "v");
+				concurrent.insert(k, "v");
+			}
+			double locked = throughput(threads, millis, r -> {
+				int k = r % keyRange;
+				synchronized (plain) {
+					if (r % 100 < readPercent)
+						plain.search(k);
+					else if (plain.insert(k, "v") == -1)
+						plain.delete(k);
+				}
+			});
+			double optimistic = throughput(threads, millis, r -> {
+				int k = r % keyRange;
+				if (r % 100 < readPercent)
+					concurrent.search(k);
+				else if (concurrent.insert(k, "v") == -1)
+					concurrent.delete(k);
+			});
+			System.out.printf("concurrent: threads=%d reads=%d%% synchronized=%.0f ops/s stamped=%.0f ops/s%n",
+					threads, readPercent, locked, optimistic);
+		}
+	}
+
+	/**
+	 * public static void concurrentMaps(int keyRange, int[] readPercents, long millis)
+	 *
+	 * Throughput of ConcurrentAVLMap against java.util.concurrent.ConcurrentSkipListMap, for every read percentage
+	 * (the rest insert/delete) and 1, 2, 4, ... threads up to the number of cores. Both maps start half full.
+	 */
+	public static void concurrentMaps(int keyRange, int[] readPercents, long millis) {
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int readPercent : readPercents) {
+			for (int threads = 1; threads <= cores; threads = threads < cores ? Math.min(threads * 2, cores) : threads + 1) {
+				ConcurrentAVLMap tree = new ConcurrentAVLMap();
+				ConcurrentSkipListMap<Integer, String> skipList = new ConcurrentSkipListMap<>();
+				for (int k = 0; k < keyRange; k += 2) {
+					tree.insert(k, "v");
+					skipList.put(k, "v");
+				}
+				double avl = throughput(threads, millis, r -> {
+					int k = r % keyRange;
+					if (r % 100 < readPercent)
+						tree.search(k);
+					else if (tree.insert(k, "v") == -1)
+						tree.delete(k);
+				});
+				double skip = throughput(threads, millis, r -> {
+					int k = r % keyRange;
+					if (r % 100 < readPercent)
+						skipList.get(k);
+					else if (skipList.putIfAbsent(k, "v") != null)
+						skipList.remove(k);
+				});
+				System.out.printf("map: threads=%d reads=%d%% ConcurrentAVLMap=%.0f ops/s ConcurrentSkipListMap=%.0f ops/s%n",
+						threads, readPercent, avl, skip);
+			}
+		}
+	}
+
+	/**
+	 * public static void shardedWrites(int keyRange, int readPercent, long millis)
+	 *
+	 * Throughput of a mixed workload (readPercent% search, the rest insert/delete) over keys spread across
+	 * the int range, for 1, 2, 4, ... threads up to the number of cores: a synchronized AVLTree against
+	 * ShardedAVLTree, whose shard count and final rebalance are printed too.
+	 */
+	public static void shardedWrites(int keyRange, int readPercent, long millis) {
+		int cores = Runtime.getRuntime().availableProcessors();
+		int spread = (int) ((1L << 32) / keyRange); // keys keyRange apart cover all shards
+		for (int threads = 1; threads <= cores; threads = threads < cores ? Math.min(threads * 2, cores) : threads + 1) {
+			AVLTree plain = new AVLTree();
+			ShardedAVLTree sharded = new ShardedAVLTree(cores * 4, 1 << 16);
+			for (int j = 0; j < keyRange; j += 2) {
+				int k = Integer.MIN_VALUE + j * spread;
+				plain.insert(k, "v");
+				sharded.insert(k, "v");
+			}
+			double locked = throughput(threads, millis, r -> {
+				int k = Integer.MIN_VALUE + (r % keyRange) * spread;
+				synchronized (plain) {
+					if (r % 100 < readPercent)
+						plain.search(k);
+					else if (plain.insert(k, "v") == -1)
+						plain.delete(k);
+				}
+			});
+			double split = throughput(threads, millis, r -> {
+				int k = Integer.MIN_VALUE + (r % keyRange) * spread;
+				if (r % 100 < readPercent)
+					sharded.search(k);
+				else if (sharded.insert(k, "v") == -1)
+					sharded.delete(k);
+			});
+			long start = System.nanoTime();
+			sharded.rebalance();
+			System.out.printf("sharded: threads=%d reads=%d%% synchronized=%.0f ops/s sharded=%.0f ops/s shards=%d (rebalance %.1f ms)%n",
+					threads, readPercent, locked, split, sharded.shardCount(), (System.nanoTime() - start) / 1e6);
+		}
+	}
+
+	/**
+	 * public static void batchedWrites(int keyRange, int window, long millis)
+	 *
+	 * Insert/delete throughput over keys in [0, keyRange) for 1, 2, 4, ... threads up to twice the number
+	 * of cores: a synchronized AVLTree against BatchingAVLTree, whose producers each keep up to window
+	 * operations in flight and wait for the oldest one before queueing another. The mean batch size is printed too.
+	 */
+	public static void batchedWrites(int keyRange, int window, long millis) {
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= 2 * cores; threads *= 2) {
+			AVLTree plain = new AVLTree();
+			AVLTree wrapped = new AVLTree();
+			for (int k = 0; k < keyRange; k += 2) {
+				plain.insert(k, "v");
+				wrapped.insert(k, "v");
+			}
+			double locked = throughput(threads, millis, r -> {
+				int k = r % keyRange;
+				synchronized (plain) {
+					if (plain.insert(k, "v") == -1)
+						plain.delete(k);
+				}
+			});
+			try (BatchingAVLTree batching = new BatchingAVLTree(wrapped, 1024, 1 << 16)) {
+				ThreadLocal<CompletableFuture<?>[]> inFlight = ThreadLocal.withInitial(() -> new CompletableFuture<?>[window]);
+				ThreadLocal<int[]> submitted = ThreadLocal.withInitial(() -> new int[1]);
+				double batched = throughput(threads, millis, r -> {
+					CompletableFuture<?>[] futures = inFlight.get();
+					int slot = submitted.get()[0]++ % window;
+					if (futures[slot] != null)
+						futures[slot].join(); // the oldest operation of this producer
+					int k = r % keyRange;
+					futures[slot] = (r & 1) == 0 ? batching.insert(k, "v") : batching.delete(k);
+				});
+				System.out.printf("batched: threads=%d window=%d synchronized=%.0f ops/s batching=%.0f ops/s (mean batch %.1f)%n",
+						threads, window, locked, batched, batching.meanBatchSize());
+			}
+		}
+	}
+
+	/**
+	 * public static void journal(int[] batchSizes, long millis)
+	 *
+	 * Insert throughput of a JournaledAVLTree in a temporary directory for every group-commit batch size,
+	 * followed by the time to recover the journal written.
+	 */
+	public static void journal(int[] batchSizes, long millis) {
+		for (int batchSize : batchSizes) {
+			try {
+				Path directory = Files.createTempDirectory("avl-journal");
+				long operations = 0;
+				long start = System.nanoTime();
+				long deadline = start + millis * 1_000_000L;
+				try (JournaledAVLTree tree = new JournaledAVLTree(directory, batchSize)) {
+					while (System.nanoTime() < deadline) {
+						tree.insert((int) operations, "v");
+						operations++;
+					}
+				}
+				double seconds = (System.nanoTime() - start) / 1e9;
+				long recoverStart = System.nanoTime();
+				try (JournaledAVLTree recovered = new JournaledAVLTree(directory, batchSize)) {
+					System.out.printf("journal: batch=%d inserts=%.0f ops/s recovery of %d records=%.1f ms%n",
+							batchSize, operations / seconds, recovered.size(), (System.nanoTime() - recoverStart) / 1e6);
+				}
+				try (var files = Files.list(directory)) {
+					for (Path file : (Iterable<Path>) files::iterator) {
+						Files.delete(file);
+					}
+				}
+				Files.delete(directory);
+			}
+			catch (IOException e) {
+				System.out.println("journal: batch=" + batchSize + " failed: " + e);
+			}
+		}
+	}
+
+	/**
+	 * public static void fingerStreams(int n)
+	 *
+	 * Inserts and then searches n keys in three orders: sequential, near-sequential (each key within
+	 * a small window ahead of the previous ones) and random, on AVLTree (finger search) and on TreeMap.
+	 */
+	public static void fingerStreams(int n) {
+		int[] sequential = new int[n];
+		int[] nearSequential = new int[n];
+		Random random = new Random(7);
+		for (int i = 0; i < n; i++) {
+			sequential[i] = i;
+			nearSequential[i] = i * 16 + random.nextInt(64); // may repeat a key; the insert then fails fast
+		}
+		int[][] streams = {sequential, nearSequential, shuffledKeys(n, 7)};
+		String[] names = {"sequential", "near-sequential", "random"};
+		for (int round = 0; round < 2; round++) { // the first round warms up
+			for (int s = 0; s < streams.length; s++) {
+				int[] keys = streams[s];
+				AVLTree tree = new AVLTree();
+				long start = System.nanoTime();
+				for (int k : keys) {
+					tree.insert(k, "v");
+				}
+				long inserted = System.nanoTime();
+				for (int k : keys) {
+					tree.search(k);
+				}
+				long searched = System.nanoTime();
+				TreeMap<Integer, String> map = new TreeMap<>();
+				for (int k : keys) {
+					map.putIfAbsent(k, "v");
+				}
+				long mapInserted = System.nanoTime();
+				for (int k : keys) {
+					map.get(k);
+				}
+				long mapSearched = System.nanoTime();
+				if (round == 1)
+					System.out.printf("finger: %s n=%d AVLTree insert=%.1f search=%.1f ns/op, TreeMap insert=%.1f search=%.1f ns/op%n",
+							names[s], n, (double) (inserted - start) / n, (double) (searched - inserted) / n,
+							(double) (mapInserted - searched) / n, (double) (mapSearched - mapInserted) / n);
+			}
+		}
+	}
+
+	/**
+	 * public static void filteredSearch(int[] sizes, int missPercent, double[] rates)
+	 *
+	 * For each size, searches a random tree with missPercent% missing keys in random order, without a filter
+	 * and with a filter at each false-positive rate, printing the filter's memory and measured false positives.
+	 */
+	public static void filteredSearch(int[] sizes, int missPercent, double[] rates) {
+		for (int n : sizes) {
+			int[] keys = shuffledKeys(n, 13);
+			AVLTree tree = new AVLTree();
+			for (int k : keys) {
+				tree.insert(k * 2, "v"); // even keys are present, odd keys are missing
+			}
+			int[] probes = new int[2 * n];
+			Random random = new Random(13);
+			for (int i = 0; i < probes.length; i++) {
+				int k = keys[random.nextInt(n)] * 2;
+				probes[i] = random.nextInt(100) < missPercent ? k + 1 : k;
+			}
+			double plain = 0;
+			for (int round = 0; round < 3; round++) { // the first rounds warm up
+				plain = searchNanos(tree, probes);
+			}
+			System.out.printf("filter: n=%d misses=%d%% no filter search=%.1f ns/op%n", n, missPercent, plain);
+			for (double rate : rates) {
+				AVLTreeFilter filter = tree.enableFilter(n, rate);
+				double filtered = 0;
+				for (int round = 0; round < 3; round++) {
+					filtered = searchNanos(tree, probes);
+				}
+				long misses = filter.negatives() + filter.falsePositives();
+				System.out.printf("filter: n=%d misses=%d%% rate=%s search=%.1f ns/op memory=%d B (%.1f bits/key) hashes=%d false positives=%.4f%n",
+						n, missPercent, rate, filtered, filter.memoryBytes(), filter.bitsPerKey(), filter.hashes(),
+						misses == 0 ? 0 : (double) filter.falsePositives() / misses);
+			}
+			tree.disableFilter();
+		}
+	}
+
+	private static double searchNanos(AVLTree tree, int[] probes) { //mean ns of tree.search over the probes
+		long hits = 0;
+		long start = System.nanoTime();
+		for (int k : probes) {
+			if (tree.search(k) != null)
+				hits++;
+		}
+		long nanos = System.nanoTime() - start;
+		if (hits < 0)
+			System.out.println(hits); // keeps the searches alive
+		return (double) nanos / probes.length;
+	}
+
+	/**
+	 * public static void arenaMemory(int n, int[] distinctValues)
+	 *
+	 * Heap bytes per entry of a tree of n items whose infos are short strings with the given number of
+	 * distinct values (each info a fresh String, as if parsed from input), with a String in every node and
+	 * with a ValueArena, followed by the time of search (a String per call) and searchBytes (in place).
+	 */
+	public static void arenaMemory(int n, int[] distinctValues) {
+		int[] keys = shuffledKeys(n, 17);
+		for (int distinct : distinctValues) {
+			for (int mode = 0; mode < 2; mode++) {
+				long before = usedHeap();
+				AVLTree tree = mode == 0 ? new AVLTree() : new AVLTree(null, new ValueArena());
+				for (int i = 0; i < n; i++) {
+					tree.insert(keys[i], "value-" + (keys[i] * 7919 & Integer.MAX_VALUE) % distinct);
+				}
+				long bytes = usedHeap() - before;
+				long hits = 0;
+				long start = System.nanoTime();
+				for (int k : keys) {
+					hits += tree.search(k).length();
+				}
+				long searched = System.nanoTime();
+				for (int k : keys) {
+					hits += tree.searchBytes(k).remaining();
+				}
+				long viewed = System.nanoTime();
+				ValueArena arena = tree.arena();
+				System.out.printf("arena: n=%d distinct=%d %s %.1f B/entry search=%.1f searchBytes=%.1f ns/op%s (%d)%n",
+						n, distinct, arena == null ? "String" : "arena", (double) bytes / n,
+						(double) (searched - start) / n, (double) (viewed - searched) / n,
+						arena == null ? "" : String.format(" arena=%d B entries=%d", arena.memoryBytes(), arena.entries()), hits & 1);
+			}
+		}
+	}
+
+	private static long usedHeap() { //heap in use after collecting garbage
+		Runtime runtime = Runtime.getRuntime();
+		for (int j = 0; j < 3; j++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * public static void frozenSearch(int[] sizes)
+	 *
+	 * For each size, searches every key of a random tree once in random order, and as many missing keys,
+	 * on the AVLTree and on its frozen (Eytzinger layout) copy, and times rank on the frozen copy.
+	 */
+	public static void frozenSearch(int[] sizes) {
+		for (int n : sizes) {
+			int[] keys = shuffledKeys(n, 11);
+			AVLTree tree = new AVLTree();
+			for (int k : keys) {
+				tree.insert(k * 2, "v"); // even keys are present, odd keys are missing
+			}
+			FrozenAVLTree frozen = tree.freeze();
+			int[] probes = new int[2 * n];
+			for (int i = 0; i < n; i++) {
+				probes[2 * i] = keys[i] * 2;
+				probes[2 * i + 1] = keys[(i * 7 + 3) % n] * 2 + 1;
+			}
+			long hits = 0;
+			for (int round = 0; round < 3; round++) { // the first rounds warm up
+				long start = System.nanoTime();
+				for (int k : probes) {
+					if (tree.search(k) != null)
+						hits++;
+				}
+				long searched = System.nanoTime();
+				for (int k : probes) {
+					if (frozen.search(k) != null)
+						hits++;
+				}
+				long frozenSearched = System.nanoTime();
+				for (int k : probes) {
+					hits += frozen.rank(k);
+				}
+				long ranked = System.nanoTime();
+				if (round == 2)
+					System.out.printf("frozen: n=%d AVLTree search=%.1f ns/op, FrozenAVLTree search=%.1f rank=%.1f ns/op (%d)%n",
+							n, (double) (searched - start) / probes.length, (double) (frozenSearched - searched) / probes.length,
+							(double) (ranked - frozenSearched) / probes.length, hits & 1);
+			}
+		}
+	}
+
+	/**
+	 * public static void suite(int[] sizes)
+	 *
+	 * For every key distribution (sequential, random, Zipfian) and size n, runs insert, search, min/max,
+	 * keysToArray and delete on AVLTree, TreeMap and ConcurrentSkipListMap, and split/join on AVLTree.
+	 * Every line reports throughput, latency percentiles (every operation is timed on its own, so they
+	 * include about one System.nanoTime() call) and bytes allocated per operation.
+	 * Each run is done twice and only the second one is reported, after the JIT has warmed up.
+	 */
+	public static void suite(int[] sizes) {
+		String[] distributions = {"sequential", "random", "zipf"};
+		for (String distribution : distributions) {
+			for (int n : sizes) {
+				int[] inserts = keyStream(distribution, n, 1);
+				int[] probes = keyStream(distribution, n, 2);
+				for (int round = 0; round < 2; round++) {
+					boolean print = round == 1;
+					String prefix = distribution + " n=" + n + " ";
+					AVLTree tree = new AVLTree();
+					suiteRun(prefix + "AVLTree", print, inserts, probes,
+							k -> tree.insert(k, "v"), tree::search, k -> tree.delete(k), () -> {
+								tree.min();
+								tree.max();
+							}, tree::keysToArray);
+					TreeMap<Integer, String> treeMap = new TreeMap<>();
+					suiteRun(prefix + "TreeMap", print, inserts, probes,
+							k -> treeMap.putIfAbsent(k, "v"), treeMap::get, treeMap::remove, () -> {
+								treeMap.firstEntry();
+								treeMap.lastEntry();
+							}, () -> keysOf(treeMap));
+					ConcurrentSkipListMap<Integer, String> skipList = new ConcurrentSkipListMap<>();
+					suiteRun(prefix + "ConcurrentSkipListMap", print, inserts, probes,
+							k -> skipList.putIfAbsent(k, "v"), skipList::get, skipList::remove, () -> {
+								skipList.firstEntry();
+								skipList.lastEntry();
+							}, () -> keysOf(skipList));
+					suiteSplitJoin(prefix + "AVLTree", print, inserts, probes);
+				}
+			}
+		}
+	}
+
+	private static void suiteRun(String label, boolean print, int[] inserts, int[] probes, IntConsumer insert,
+			IntConsumer search, IntConsumer delete, Runnable minMax, Runnable toArray) { //one pass of every operation, in an order that leaves the structure empty
+		long[] latencies = new long[inserts.length];
+		measure(label + " insert", print, latencies, inserts.length, i -> insert.accept(inserts[i]));
+		measure(label + " search", print, latencies, probes.length, i -> search.accept(probes[i]));
+		measure(label + " min+max", print, latencies, probes.length, i -> minMax.run());
+		measure(label + " keysToArray", print, latencies, Math.max(1, (1 << 16) / inserts.length), i -> toArray.run());
+		measure(label + " delete", print, latencies, inserts.length, i -> delete.accept(inserts[i]));
+	}
+
+	private static void suiteSplitJoin(String label, boolean print, int[] inserts, int[] probes) { //splits at a present key and joins the halves back, over and over
+		AVLTree tree = new AVLTree();
+		for (int k : inserts) {
+			tree.insert(k, "v");
+		}
+		int operations = Math.min(probes.length, 1 << 12);
+		long[] splitLatencies = new long[operations];
+		long[] joinLatencies = new long[operations];
+		long splitNanos = 0;
+		long joinNanos = 0;
+		long splitBytes = 0;
+		long joinBytes = 0;
+		long probe = allocatedBytes(); // cost of the measurement itself
+		long probeBytes = allocatedBytes() - probe;
+		for (int i = 0; i < operations; i++) {
+			int x = inserts[probes[i] % inserts.length]; // present
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			AVLTree[] halves = tree.split(x);
+			splitLatencies[i] = System.nanoTime() - start;
+			splitBytes += allocatedBytes() - bytes - probeBytes;
+			AVLTree.IAVLNode node = halves[0].new AVLNode(x, "v", 0, null, null, null, 1); // join takes a detached node
+			bytes = allocatedBytes();
+			start = System.nanoTime();
+			halves[0].join(node, halves[1]);
+			joinLatencies[i] = System.nanoTime() - start;
+			joinBytes += allocatedBytes() - bytes - probeBytes;
+			splitNanos += splitLatencies[i];
+			joinNanos += joinLatencies[i];
+			tree = halves[0];
+		}
+		if (print) {
+			printLatencies(label + " split", splitLatencies, operations, splitNanos, (double) splitBytes / operations);
+			printLatencies(label + " join", joinLatencies, operations, joinNanos, (double) joinBytes / operations);
+		}
+	}
+
+	private static void measure(String label, boolean print, long[] latencies, int operations, IntConsumer operation) { //times every call of operation(i), i in [0, operations)
+		long bytes = allocatedBytes();
+		long total = System.nanoTime();
+		for (int i = 0; i < operations; i++) {
+			long start = System.nanoTime();
+			operation.accept(i);
+			latencies[i] = System.nanoTime() - start;
+		}
+		total = System.nanoTime() - total;
+		bytes = allocatedBytes() - bytes;
+		if (print)
+			printLatencies(label, latencies, operations, total, (double) bytes / operations);
+	}
+
+	private static void printLatencies(String label, long[] latencies, int operations, long totalNanos, double bytesPerOperation) {
+		long[] sorted = Arrays.copyOf(latencies, operations);
+		Arrays.sort(sorted);
+		System.out.printf("suite: %s %.0f ops/s p50=%d p99=%d p99.9=%d max=%d ns%s%n", label,
+				operations * 1e9 / totalNanos, percentile(sorted, 0.5), percentile(sorted, 0.99), percentile(sorted, 0.999),
+				sorted[operations - 1], bytesPerOperation < 0 ? "" : String.format(" alloc=%.1f B/op", bytesPerOperation));
+	}
+
+	private static long percentile(long[] sorted, double q) {
+		return sorted[(int) Math.min(sorted.length - 1, (long) (q * sorted.length))];
+	}
+
+	private static int[] keysOf(NavigableMap<Integer, String> map) { //the keysToArray of a JDK map
+		int[] keys = new int[map.size()];
+		int i = 0;
+		for (int k : map.keySet()) {
+			keys[i++] = k;
+		}
+		return keys;
+	}
+
+	private static int[] keyStream(String distribution, int n, long seed) { //n keys in [0, n) drawn from the distribution
+		if (distribution.equals("sequential")) {
+			int[] keys = new int[n];
+			for (int i = 0; i < n; i++) {
+				keys[i] = i;
+			}
+			return keys;
+		}
+		if (distribution.equals("random"))
+			return shuffledKeys(n, seed);
+		double[] cumulative = new double[n]; // Zipf with exponent 0.99: rank r is drawn with weight 1 / (r + 1)^0.99
+		double sum = 0;
+		for (int r = 0; r < n; r++) {
+			sum += 1 / Math.pow(r + 1, 0.99);
+			cumulative[r] = sum;
+		}
+		int[] keyOfRank = shuffledKeys(n, 0); // the popular keys are spread over the key space
+		Random random = new Random(seed);
+		int[] keys = new int[n];
+		for (int i = 0; i < n; i++) {
+			int r = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+			keys[i] = keyOfRank[Math.min(r < 0 ? -r - 1 : r, n - 1)];
+		}
+		return keys;
+	}
+
+	private static double throughput(int threads, long millis, IntConsumer operation) { //ops per second of threads calling operation with random non-negative ints
+		LongAdder operations = new LongAdder();
+		Thread[] workers = new Thread[threads];
+		long deadline = System.nanoTime() + millis * 1_000_000L;
+		for (int t = 0; t < threads; t++) {
+			workers[t] = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				long count = 0;
+				while ((count & 255) != 0 || System.nanoTime() < deadline) {
+					operation.accept(random.nextInt() & Integer.MAX_VALUE);
+					count++;
+				}
+				operations.add(count);
+			});
+			workers[t].start();
+		}
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return operations.sum() * 1000.0 / millis;
+	}
+
+	private static long allocatedBytes() {
+		return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static int[] shuffledKeys(int n, long seed) { //distinct non-negative keys in random order
+		int[] keys = new int[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = i;
+		}
+		Random random = new Random(seed);
+		for (int i = n - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int tmp = keys[i];
+			keys[i] = keys[j];
+			keys[j] = tmp;
+		}
+		return keys;
+	}
+}
@@ -0,0 +1,273 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AVLTreeFile
+ * A compact binary image of an AVLTree, and a read-only view of such an image mapped into memory.
+ *
+ * Layout (big-endian):
+ *   header   MAGIC, VERSION, node count (3 ints)
+ *   nodes    one RECORD_BYTES record per node in pre-order: key, subtree size, string index (-1 for null info), height (1 byte)
+ *   strings  string count, then string count + 1 offsets into the UTF-8 data that follows; each distinct info is stored once
+ *
+ * In pre-order the left child of a node, if any, is the next record, and the right child comes right after
+ * the left subtree; a node has a left child if its subtree has more than one node and the next key is smaller.
+ * So both a lookup (open) and a full reload (load) need nothing but the records themselves.
+ */
+public class AVLTreeFile {
+
+	private static final int MAGIC = 0x41564C54; // "AVLT"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 12;
+	private static final int RECORD_BYTES = 13;
+	private static final int KEY = 0; // byte offsets inside a record
+	private static final int SIZE = 4;
+	private static final int VALUE = 8;
+	private static final int HEIGHT = 12;
+
+	private final ByteBuffer image;
+	private final int nodes;
+	private final int offsetsStart; // position of the string offsets
+	private final int dataStart; // position of the UTF-8 data
+
+	private AVLTreeFile(ByteBuffer image) throws IOException {
+		if (image.capacity() < HEADER_BYTES || image.getInt(0) != MAGIC || image.getInt(4) != VERSION)
+			throw new IOException("not an AVLTreeFile image");
+		this.image = image;
+		this.nodes = image.getInt(8);
+		long stringsStart = HEADER_BYTES + (long) this.nodes * RECORD_BYTES;
+		if (this.nodes < 0 || stringsStart + 4 > image.capacity())
+			throw new IOException("truncated AVLTreeFile image");
+		int strings = image.getInt((int) stringsStart);
+		this.offsetsStart = (int) stringsStart + 4;
+		this.dataStart = this.offsetsStart + (strings + 1) * 4;
+		if (strings < 0 || this.dataStart > image.capacity())
+			throw new IOException("truncated AVLTreeFile image");
+	}
+
+	/**
+	 * public static void save(AVLTree tree, Path file)
+	 *
+	 * Writes tree to file, replacing it atomically, in one sequential pass over the nodes.
+	 * The image goes to file.tmp first, is forced to disk and renamed over file, and then the directory
+	 * is forced too; so after a crash file holds either the old image or the whole new one.
+	 */
+	public static void save(AVLTree tree, Path file) throws IOException {
+		Path target = file.toAbsolutePath();
+		Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+		boolean moved = false;
+		try {
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+				write(tree, out);
+				out.flush();
+				channel.force(true);
+			}
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			moved = true;
+		}
+		finally {
+			if (!moved)
+				Files.deleteIfExists(temporary);
+		}
+		syncDirectory(target.getParent()); // the rename is durable once the directory is
+	}
+
+	static void syncDirectory(Path directory) throws IOException { // forces the directory entries (renames, new files) to disk
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+		catch (AccessDeniedException e) { // platforms that cannot open a directory (Windows) make renames durable themselves
+		}
+	}
+
+	private static void write(AVLTree tree, DataOutputStream out) throws IOException { // the image, in one pre-order pass
+		int n = tree.size();
+		AVLTree.AVLNode[] stack = new AVLTree.AVLNode[n == 0 ? 1 : tree.getRoot().getHeight() + 2];
+		Map<String, Integer> indexes = new HashMap<>();
+		List<byte[]> strings = new ArrayList<>();
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(n);
+		int depth = 0;
+		if (n > 0)
+			stack[depth++] = tree.getRoot();
+		while (depth > 0) { // iterative pre-order walk
+			AVLTree.AVLNode node = stack[--depth];
+			String info = node.getValue();
+			int value = -1;
+			if (info != null) {
+				Integer index = indexes.get(info);
+				if (index == null) {
+					index = strings.size();
+					indexes.put(info, index);
+					strings.add(info.getBytes(StandardCharsets.UTF_8));
+				}
+				value = index;
+			}
+			out.writeInt(node.getKey());
+			out.writeInt(node.getSize());
+			out.writeInt(value);
+			out.writeByte(node.getHeight());
+			if (node.getRight().isRealNode())
+				stack[depth++] = (AVLTree.AVLNode) node.getRight();
+			if (node.getLeft().isRealNode())
+				stack[depth++] = (AVLTree.AVLNode) node.getLeft();
+		}
+		out.writeInt(strings.size());
+		int offset = 0;
+		for (byte[] bytes : strings) {
+			out.writeInt(offset);
+			offset += bytes.length;
+		}
+		out.writeInt(offset);
+		for (byte[] bytes : strings) {
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * public static AVLTree load(Path file)
+	 *
+	 * Reads a file written by save and builds the tree in one sequential pass over its records,
+	 * without a single search or rotation.
+	 */
+	public static AVLTree load(Path file) throws IOException {
+		return open(file).toTree();
+	}
+
+	/**
+	 * public static AVLTreeFile open(Path file)
+	 *
+	 * Maps a file written by save into memory. Nothing is read until it is searched,
+	 * and only the records on the search path are touched.
+	 */
+	public static AVLTreeFile open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("AVLTreeFile image larger than 2GB");
+			MappedByteBuffer image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // stays valid after close
+			return new AVLTreeFile(image);
+		}
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the image holds no items
+	 */
+	public boolean empty() {
+		return this.nodes == 0;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of items in the image.
+	 */
+	public int size() {
+		return this.nodes;
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the image
+	 * otherwise, returns null. Decodes only the info it returns.
+	 */
+	public String search(int k) {
+		int record = 0;
+		int end = this.nodes; // records of the current subtree are [record, end)
+		while (record < end) {
+			int key = key(record);
+			if (k == key)
+				return info(record);
+			int leftSize = leftSize(record, key);
+			if (k < key) {
+				end = record + 1 + leftSize;
+				record++;
+			}
+			else {
+				record += 1 + leftSize;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * public AVLTree toTree()
+	 *
+	 * Builds an AVLTree with the items of the image in one sequential pass over the records:
+	 * every record's in-order position follows from the subtree sizes, so keys and infos are
+	 * placed straight into sorted arrays and handed to the linear-time bulk constructor.
+	 */
+	public AVLTree toTree() {
+		int n = this.nodes;
+		int[] keys = new int[n];
+		String[] infos = new String[n];
+		String[] strings = new String[this.image.getInt(this.offsetsStart - 4)]; // each distinct info is decoded once
+		int[] starts = new int[n == 0 ? 1 : (this.image.get(HEADER_BYTES + HEIGHT) & 0xFF) + 2]; // in-order start of the pending subtrees
+		int depth = 0;
+		starts[depth++] = 0;
+		for (int record = 0; record < n; record++) {
+			int start = starts[--depth];
+			int key = key(record);
+			int leftSize = leftSize(record, key);
+			int position = start + leftSize;
+			keys[position] = key;
+			int value = this.image.getInt(HEADER_BYTES + record * RECORD_BYTES + VALUE);
+			if (value >= 0) {
+				if (strings[value] == null)
+					strings[value] = string(value);
+				infos[position] = strings[value];
+			}
+			if (leftSize + 1 < size(record)) // the right subtree comes after the left one
+				starts[depth++] = position + 1;
+			if (leftSize > 0)
+				starts[depth++] = start;
+		}
+		return new AVLTree(keys, infos);
+	}
+
+	private int key(int record) {
+		return this.image.getInt(HEADER_BYTES + record * RECORD_BYTES + KEY);
+	}
+
+	private int size(int record) {
+		return this.image.getInt(HEADER_BYTES + record * RECORD_BYTES + SIZE);
+	}
+
+	private int leftSize(int record, int key) { // the left child, if any, is the next record
+		if (size(record) > 1 && key(record + 1) < key)
+			return size(record + 1);
+		return 0;
+	}
+
+	private String info(int record) {
+		int value = this.image.getInt(HEADER_BYTES + record * RECORD_BYTES + VALUE);
+		return value < 0 ? null : string(value);
+	}
+
+	private String string(int index) {
+		int from = this.image.getInt(this.offsetsStart + index * 4);
+		int to = this.image.getInt(this.offsetsStart + index * 4 + 4);
+		byte[] bytes = new byte[to - from];
+		this.image.get(this.dataStart + from, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
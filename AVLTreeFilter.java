@@ -0,0 +1,243 @@
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AVLTreeFilter
+ * A counting Bloom filter over the keys of one AVLTree, switched on with AVLTree.enableFilter(), so that
+ * search answers most misses without walking the tree. It never denies a key in the tree; a key not in
+ * the tree passes it with about the configured false-positive rate.
+ *
+ * The filter is blocked: all the counters of a key lie in one 64-byte block (128 counters of 4 bits, in
+ * 8 longs), so a lookup touches a single cache line. Keys spread unevenly over the blocks, so the filter
+ * takes more counters per key than an unblocked one to hold the same false-positive rate.
+ * insert and delete add and remove the key's counters; a counter that reaches 15 stays there, so it can
+ * only cause false positives. Operations that move whole subtrees (split, join, the range and set
+ * operations) rebuild the filter from the tree in O(n), and so does growing beyond the capacity, which
+ * doubles it. A rebuild fills new counters and publishes them only when complete, and lookups change
+ * nothing but the statistics (LongAdders), so concurrent searches of an unchanging tree stay safe.
+ */
+public class AVLTreeFilter {
+
+	private static final int BLOCK_LONGS = 8; // 64 bytes
+	private static final int BLOCK_COUNTERS = BLOCK_LONGS * 16;
+	private static final int MIN_CAPACITY = 1024;
+	private static final int MAX_HASHES = 16;
+	private static final long PROBE = 0x9E3779B97F4A7C15L; // odd, so multiplying by it loses no hash bits
+
+	private final AVLTree tree;
+	private final double falsePositiveRate;
+	private final int hashes; // counters per key
+	private final double countersPerKey;
+	private volatile long[] counters; // 4-bit counters, 16 per long, BLOCK_LONGS longs per block; replaced whole by a rebuild
+	private int capacity; // keys the filter is sized for
+	private int keys; // keys added and not removed since the last rebuild
+	private final LongAdder lookups = new LongAdder();
+	private final LongAdder negatives = new LongAdder(); // lookups answered by the filter alone
+	private final LongAdder falsePositives = new LongAdder(); // lookups that passed the filter but missed in the tree
+	private long rebuilds;
+
+	AVLTreeFilter(AVLTree tree, int expectedKeys, double falsePositiveRate) { // Builder, by AVLTree.enableFilter()
+		if (!(falsePositiveRate > 0 && falsePositiveRate < 1))
+			throw new IllegalArgumentException("falsePositiveRate " + falsePositiveRate);
+		this.tree = tree;
+		this.falsePositiveRate = falsePositiveRate;
+		double countersPerKey = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)); // optimal unblocked Bloom filter size
+		this.hashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round(countersPerKey * Math.log(2))));
+		while (blockedRate(countersPerKey, this.hashes) > falsePositiveRate) { // blocks fill unevenly: add counters until the rate holds
+			countersPerKey *= 1.05;
+		}
+		this.countersPerKey = countersPerKey;
+		this.capacity = Math.max(MIN_CAPACITY, Math.max(expectedKeys, tree.size()));
+		rebuild();
+	}
+
+	// hooks called by AVLTree
+
+	boolean mightContain(int k) { // false only if k is not in the tree; reads the counters only
+		long[] counters = this.counters;
+		this.lookups.increment();
+		long hash = hash(k);
+		int base = block(hash, counters) * BLOCK_LONGS;
+		for (int j = 0; j < this.hashes; j++) {
+			hash *= PROBE; // the top 7 bits of every product pick one counter of the block
+			int counter = (int) (hash >>> 57);
+			if ((counters[base + (counter >>> 4)] >>> ((counter & 15) << 2) & 15) == 0) {
+				this.negatives.increment();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	void falsePositive() { // mightContain(k) was true but k is not in the tree
+		this.falsePositives.increment();
+	}
+
+	void add(int k) {
+		if (++this.keys > this.capacity) { // too full for the rate: rebuild twice as large, k is in the tree already
+			this.capacity *= 2;
+			rebuild();
+			return;
+		}
+		add(this.counters, this.hashes, k);
+	}
+
+	void remove(int k) {
+		this.keys--;
+		long[] counters = this.counters;
+		long hash = hash(k);
+		int base = block(hash, counters) * BLOCK_LONGS;
+		for (int j = 0; j < this.hashes; j++) {
+			hash *= PROBE;
+			int counter = (int) (hash >>> 57);
+			int word = base + (counter >>> 4);
+			int shift = (counter & 15) << 2;
+			long value = counters[word] >>> shift & 15;
+			if (value != 15 && value != 0) // a saturated counter may count more keys than 15
+				counters[word] -= 1L << shift;
+		}
+	}
+
+	void rebuild() { // after the keys of the tree changed wholesale: new counters from the tree, published when full
+		int size = this.tree.size();
+		this.capacity = Math.max(this.capacity, size);
+		int blocks = (int) Math.max(1, Math.ceil(this.capacity * this.countersPerKey / BLOCK_COUNTERS));
+		long[] counters = new long[blocks * BLOCK_LONGS];
+		Iterator<AVLTree.IAVLNode> nodes = this.tree.range(Integer.MIN_VALUE, Integer.MAX_VALUE);
+		while (nodes.hasNext()) {
+			add(counters, this.hashes, nodes.next().getKey());
+		}
+		this.keys = size;
+		this.rebuilds++;
+		this.counters = counters;
+	}
+
+	private static void add(long[] counters, int hashes, int k) {
+		long hash = hash(k);
+		int base = block(hash, counters) * BLOCK_LONGS;
+		for (int j = 0; j < hashes; j++) {
+			hash *= PROBE;
+			int counter = (int) (hash >>> 57);
+			int word = base + (counter >>> 4);
+			int shift = (counter & 15) << 2;
+			if ((counters[word] >>> shift & 15) != 15) // saturated counters stay
+				counters[word] += 1L << shift;
+		}
+	}
+
+	private static double blockedRate(double countersPerKey, int hashes) { // false-positive rate of the blocked filter when full
+		double keysPerBlock = BLOCK_COUNTERS / countersPerKey; // the keys of a block are Poisson distributed
+		double probability = Math.exp(-keysPerBlock);
+		double rate = 0;
+		for (int keys = 0; keys < 6 * keysPerBlock + 50; keys++) {
+			rate += probability * Math.pow(1 - Math.pow(1 - 1.0 / BLOCK_COUNTERS, (double) hashes * keys), hashes);
+			probability *= keysPerBlock / (keys + 1);
+		}
+		return rate;
+	}
+
+	private static int block(long hash, long[] counters) { // the high 32 bits scaled to [0, blocks), without a division
+		return (int) (((hash >>> 32) * (counters.length / BLOCK_LONGS)) >>> 32);
+	}
+
+	private static long hash(int k) { // the SplitMix64 finalizer
+		long z = k + 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * public double falsePositiveRate()
+	 *
+	 * Returns the false-positive rate the filter was configured for.
+	 */
+	public double falsePositiveRate() {
+		return this.falsePositiveRate;
+	}
+
+	/**
+	 * public double expectedFalsePositiveRate()
+	 *
+	 * Returns the false-positive rate expected at the current number of keys; it grows towards
+	 * the configured rate as the filter fills up to its capacity.
+	 */
+	public double expectedFalsePositiveRate() {
+		if (this.keys == 0)
+			return 0;
+		return blockedRate((double) this.counters.length * 16 / this.keys, this.hashes);
+	}
+
+	/**
+	 * public int hashes()
+	 *
+	 * Returns the number of counters of every key.
+	 */
+	public int hashes() {
+		return this.hashes;
+	}
+
+	/**
+	 * public int capacity()
+	 *
+	 * Returns the number of keys the filter is currently sized for.
+	 */
+	public int capacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * public long memoryBytes()
+	 *
+	 * Returns the bytes taken by the counters.
+	 */
+	public long memoryBytes() {
+		return 8L * this.counters.length;
+	}
+
+	/**
+	 * public double bitsPerKey()
+	 *
+	 * Returns the counter bits per key of the tree, or 0 if the tree is empty.
+	 */
+	public double bitsPerKey() {
+		int size = this.tree.size();
+		return size == 0 ? 0 : 8.0 * memoryBytes() / size;
+	}
+
+	/**
+	 * public long lookups()
+	 *
+	 * Returns the number of searches that consulted the filter.
+	 */
+	public long lookups() {
+		return this.lookups.sum();
+	}
+
+	/**
+	 * public long negatives()
+	 *
+	 * Returns the number of searches the filter answered without touching the tree.
+	 */
+	public long negatives() {
+		return this.negatives.sum();
+	}
+
+	/**
+	 * public long falsePositives()
+	 *
+	 * Returns the number of searches that passed the filter but did not find their key.
+	 */
+	public long falsePositives() {
+		return this.falsePositives.sum();
+	}
+
+	/**
+	 * public long rebuilds()
+	 *
+	 * Returns the number of times the filter was rebuilt from the tree.
+	 */
+	public long rebuilds() {
+		return this.rebuilds;
+	}
+}
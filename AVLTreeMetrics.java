@@ -0,0 +1,278 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * AVLTreeMetrics
+ * Rebalancing and shape counters of one AVLTree, switched on with AVLTree.enableMetrics().
+ * A tree without metrics pays one null check per hook and nothing else.
+ *
+ * Counters are LongAdders (striped), so they can be read from any thread, and are exposed as an MXBean
+ * (see register) for JConsole or any JMX client. Inserts and deletes that rebalance, and every split and join,
+ * also emit JFR events (category "AVLTree"), recorded only while a JFR recording enables them.
+ */
+public class AVLTreeMetrics implements AVLTreeMetricsMXBean {
+
+	private static final int PATH_BUCKETS = 128; // path lengths from 0 to PATH_BUCKETS - 1, longer ones in the last bucket
+
+	private final AVLTree tree;
+	private final LongAdder searches = new LongAdder();
+	private final LongAdder inserts = new LongAdder();
+	private final LongAdder deletes = new LongAdder();
+	private final LongAdder rebalanceOperations = new LongAdder(); // sum of what insert and delete returned
+	private final LongAdder rotations = new LongAdder(); // single rotation steps, two for every double rotation
+	private final LongAdder doubleRotations = new LongAdder();
+	private final LongAdder promotes = new LongAdder();
+	private final LongAdder demotes = new LongAdder();
+	private final LongAdder splits = new LongAdder();
+	private final LongAdder splitCost = new LongAdder();
+	private final LongAdder joins = new LongAdder();
+	private final LongAdder joinCost = new LongAdder();
+	private final LongAdder[] pathLengths = new LongAdder[PATH_BUCKETS];
+	private ObjectName name; // set while registered
+
+	AVLTreeMetrics(AVLTree tree) { // Builder, by AVLTree.enableMetrics()
+		this.tree = tree;
+		for (int j = 0; j < PATH_BUCKETS; j++) {
+			this.pathLengths[j] = new LongAdder();
+		}
+	}
+
+	/**
+	 * public void register(String name)
+	 *
+	 * Registers the metrics with the platform MBean server as "AVLTree:type=Metrics,name=<name>".
+	 */
+	public synchronized void register(String name) throws JMException {
+		ObjectName objectName = new ObjectName("AVLTree:type=Metrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		this.name = objectName;
+	}
+
+	/**
+	 * public void unregister()
+	 *
+	 * Removes the metrics from the platform MBean server, if register was called.
+	 */
+	public synchronized void unregister() throws JMException {
+		if (this.name != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.name);
+			this.name = null;
+		}
+	}
+
+	// hooks called by AVLTree
+
+	void search() {
+		this.searches.increment();
+	}
+
+	void path(int length) {
+		this.pathLengths[Math.min(length, PATH_BUCKETS - 1)].increment();
+	}
+
+	void insert(int result) {
+		this.inserts.increment();
+		rebalanced("insert", result);
+	}
+
+	void delete(int result) {
+		this.deletes.increment();
+		rebalanced("delete", result);
+	}
+
+	private void rebalanced(String operation, int result) {
+		if (result <= 0)
+			return;
+		this.rebalanceOperations.add(result);
+		RebalanceEvent event = new RebalanceEvent();
+		if (event.isEnabled()) {
+			event.operation = operation;
+			event.rebalanceOperations = result;
+			event.size = this.tree.size();
+			event.commit();
+		}
+	}
+
+	void rotation() {
+		this.rotations.increment();
+	}
+
+	void doubleRotation() {
+		this.doubleRotations.increment();
+	}
+
+	void promote() {
+		this.promotes.increment();
+	}
+
+	void demote() {
+		this.demotes.increment();
+	}
+
+	void split(int cost, int size) { // size before the split, which empties the tree
+		this.splits.increment();
+		this.splitCost.add(cost);
+		shapeChanged("split", cost, size);
+	}
+
+	void join(int cost, int size) { // size after the join
+		this.joins.increment();
+		this.joinCost.add(cost);
+		shapeChanged("join", cost, size);
+	}
+
+	private void shapeChanged(String operation, int cost, int size) {
+		SplitJoinEvent event = new SplitJoinEvent();
+		if (event.isEnabled()) {
+			event.operation = operation;
+			event.cost = cost;
+			event.size = size;
+			event.commit();
+		}
+	}
+
+	// MXBean attributes
+
+	@Override
+	public long getSearches() {
+		return this.searches.sum();
+	}
+
+	@Override
+	public long getInserts() {
+		return this.inserts.sum();
+	}
+
+	@Override
+	public long getDeletes() {
+		return this.deletes.sum();
+	}
+
+	@Override
+	public long getRebalanceOperations() {
+		return this.rebalanceOperations.sum();
+	}
+
+	@Override
+	public long getSingleRotations() {
+		return this.rotations.sum() - 2 * this.doubleRotations.sum();
+	}
+
+	@Override
+	public long getDoubleRotations() {
+		return this.doubleRotations.sum();
+	}
+
+	@Override
+	public long getPromotes() {
+		return this.promotes.sum();
+	}
+
+	@Override
+	public long getDemotes() {
+		return this.demotes.sum();
+	}
+
+	@Override
+	public long getSplits() {
+		return this.splits.sum();
+	}
+
+	@Override
+	public long getSplitCost() {
+		return this.splitCost.sum();
+	}
+
+	@Override
+	public long getJoins() {
+		return this.joins.sum();
+	}
+
+	@Override
+	public long getJoinCost() {
+		return this.joinCost.sum();
+	}
+
+	@Override
+	public long[] getPathLengthHistogram() {
+		long[] histogram = new long[PATH_BUCKETS];
+		for (int j = 0; j < PATH_BUCKETS; j++) {
+			histogram[j] = this.pathLengths[j].sum();
+		}
+		return histogram;
+	}
+
+	@Override
+	public double getMeanPathLength() {
+		long paths = 0;
+		long nodes = 0;
+		for (int j = 0; j < PATH_BUCKETS; j++) {
+			long count = this.pathLengths[j].sum();
+			paths += count;
+			nodes += count * j;
+		}
+		return paths == 0 ? 0 : (double) nodes / paths;
+	}
+
+	@Override
+	public int getSize() {
+		return this.tree.size();
+	}
+
+	@Override
+	public int getHeight() {
+		AVLTree.AVLNode root = this.tree.getRoot();
+		return root == null ? -1 : root.getHeight();
+	}
+
+	@Override
+	public double getHeightToLog2Size() {
+		int size = getSize();
+		if (size == 0)
+			return 0;
+		return (getHeight() + 1) / (Math.log(size + 1) / Math.log(2)); // 1 for a perfect tree, at most about 1.44 for AVL
+	}
+
+	@Override
+	public void reset() {
+		LongAdder[] counters = {this.searches, this.inserts, this.deletes, this.rebalanceOperations, this.rotations,
+				this.doubleRotations, this.promotes, this.demotes, this.splits, this.splitCost, this.joins, this.joinCost};
+		for (LongAdder counter : counters) {
+			counter.reset();
+		}
+		for (LongAdder counter : this.pathLengths) {
+			counter.reset();
+		}
+	}
+
+	@Name("AVLTree.Rebalance")
+	@Label("AVLTree Rebalance")
+	@Category("AVLTree")
+	static class RebalanceEvent extends Event {
+		@Label("Operation")
+		String operation;
+		@Label("Rebalancing Operations")
+		int rebalanceOperations;
+		@Label("Tree Size")
+		int size;
+	}
+
+	@Name("AVLTree.SplitJoin")
+	@Label("AVLTree Split or Join")
+	@Category("AVLTree")
+	static class SplitJoinEvent extends Event {
+		@Label("Operation")
+		String operation;
+		@Label("Cost")
+		int cost;
+		@Label("Tree Size")
+		int size;
+	}
+}
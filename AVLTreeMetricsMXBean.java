@@ -0,0 +1,25 @@
+/**
+ * AVLTreeMetricsMXBean
+ * The JMX view of AVLTreeMetrics. Size, height and their ratio are read from the tree without locking,
+ * so they are approximate while another thread changes it.
+ */
+public interface AVLTreeMetricsMXBean {
+	public long getSearches(); //calls of search
+	public long getInserts(); //calls of insert
+	public long getDeletes(); //calls of delete
+	public long getRebalanceOperations(); //total of the rebalancing counts insert and delete returned
+	public long getSingleRotations();
+	public long getDoubleRotations();
+	public long getPromotes(); //height increments by insert and delete rebalancing
+	public long getDemotes(); //height decrements by insert and delete rebalancing
+	public long getSplits();
+	public long getSplitCost(); //total levels split walked down
+	public long getJoins();
+	public long getJoinCost(); //total of the complexities join returned
+	public long[] getPathLengthHistogram(); //[j] = lookups that visited j nodes, from the finger or the root
+	public double getMeanPathLength();
+	public int getSize();
+	public int getHeight();
+	public double getHeightToLog2Size(); //(height + 1) / log2(size + 1)
+	public void reset(); //zeroes every counter
+}
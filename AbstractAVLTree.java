@@ -0,0 +1,148 @@
+/**
+ * AbstractAVLTree
+ * The rebalancing shared by the AVL trees of linked nodes that are changed in place (GenericAVLTree,
+ * LongAVLTree, IntervalTree and MultisetAVLTree): updating a node from its children, rotations,
+ * balancing, unlinking a node, and join. A subclass walks down in its own key order and rebalances on
+ * the way back up with balance; whatever its nodes keep about their subtree beyond height and size is
+ * recomputed by TreeNode.pull whenever their children change.
+ */
+abstract class AbstractAVLTree<N extends AbstractAVLTree.TreeNode<N>> {
+
+	int rebalanceCounter; // rebalancing operations (rotations and height changes) of the current operation, -1 if it changed nothing
+
+	/**
+	 * abstract int compare(N a, N b)
+	 *
+	 * Compares the keys of a and b like a Comparator.
+	 */
+	abstract int compare(N a, N b);
+
+	static int height(TreeNode<?> node) {
+		return node == null ? -1 : node.height;
+	}
+
+	static int size(TreeNode<?> node) {
+		return node == null ? 0 : node.size;
+	}
+
+	N insert(N node, N leaf) { // returns the new subtree root, with leaf linked in unless its key exists already (then the counter is -1)
+		if (node == null) {
+			return leaf;
+		}
+		int c = compare(leaf, node);
+		if (c == 0) { // the key already exists in the tree
+			this.rebalanceCounter = -1;
+			return node;
+		}
+		if (c < 0) {
+			node.left = insert(node.left, leaf);
+		}
+		else {
+			node.right = insert(node.right, leaf);
+		}
+		return this.rebalanceCounter == -1 ? node : balance(node);
+	}
+
+	N unlink(N node) { // returns the new root of the subtree of node, without node
+		if (node.left == null) {
+			return node.right;
+		}
+		if (node.right == null) {
+			return node.left;
+		}
+		N successor = node.right;
+		while (successor.left != null) {
+			successor = successor.left;
+		}
+		successor.right = detachMin(node.right);
+		successor.left = node.left;
+		return balance(successor);
+	}
+
+	N detachMin(N node) { // removes the minimal node of the subtree
+		if (node.left == null) {
+			return node.right;
+		}
+		node.left = detachMin(node.left);
+		return balance(node);
+	}
+
+	N join(N left, N x, N right) { // keys(left) < key(x) < keys(right); walks down the spine of the higher tree only
+		if (height(left) > height(right) + 1) {
+			left.right = join(left.right, x, right);
+			return balance(left);
+		}
+		if (height(right) > height(left) + 1) {
+			right.left = join(left, x, right.left);
+			return balance(right);
+		}
+		x.left = left;
+		x.right = right;
+		update(x);
+		return x;
+	}
+
+	void update(N node) { // recomputes height and size of node from its children, then the rest by pull
+		int height = Math.max(height(node.left), height(node.right)) + 1;
+		if (height != node.height) {
+			this.rebalanceCounter++;
+			node.height = height;
+		}
+		node.size = size(node.left) + size(node.right) + 1;
+		node.pull();
+	}
+
+	N balance(N node) { // restores the AVL invariant at node, returns the new subtree root
+		update(node);
+		int difference = height(node.left) - height(node.right);
+		if (difference > 1) {
+			if (height(node.left.left) < height(node.left.right)) { //double rotation
+				node.left = rotateLeft(node.left);
+			}
+			return rotateRight(node);
+		}
+		if (difference < -1) {
+			if (height(node.right.right) < height(node.right.left)) { //double rotation
+				node.right = rotateRight(node.right);
+			}
+			return rotateLeft(node);
+		}
+		return node;
+	}
+
+	N rotateRight(N node) { // the left child of node goes up
+		N child = node.left;
+		node.left = child.right;
+		child.right = node;
+		update(node);
+		update(child);
+		this.rebalanceCounter++;
+		return child;
+	}
+
+	N rotateLeft(N node) { // the right child of node goes up
+		N child = node.right;
+		node.right = child.left;
+		child.left = node;
+		update(node);
+		update(child);
+		this.rebalanceCounter++;
+		return child;
+	}
+
+	/**
+	 * abstract static class TreeNode<N>
+	 *
+	 * The links, height and size of a node; a new node is a leaf.
+	 */
+	abstract static class TreeNode<N extends TreeNode<N>> {
+
+		N left;
+		N right;
+		int height;
+		int size = 1;
+
+		void pull() { // recomputes what the node keeps about its subtree beyond height and size, from its children
+		}
+	}
+}
@@ -0,0 +1,240 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * BatchingAVLTree
+ * A thread-safe front end for one AVLTree that only a single writer thread ever touches. Producers put
+ * their operations on a lock-free queue and get a CompletableFuture of the result back; the writer drains
+ * the queue in batches of up to maxBatch operations, sorts every batch by key and applies it. Thanks to
+ * the finger (see AVLTree.search), which every insert and delete moves, each operation of a sorted batch
+ * that follows one of them starts its walk next to it, so for keys a few levels apart a batch costs
+ * O(log d) per operation, d being the distance between consecutive keys.
+ *
+ * The sort is stable, so operations on the same key are applied in the order they were queued, and every
+ * producer sees its own writes; operations on different keys may be applied in any order. At most maxPending
+ * operations wait at any time: a producer blocks (without pinning a thread) until there is room, which bounds
+ * the queue and with it the latency of every operation. Callers get a copy of the future of their operation,
+ * so completing or cancelling it does not reach the writer, but its non-async follow-ups still run on the
+ * writer thread; slow ones belong in the *Async variants of CompletableFuture. Whatever an operation throws,
+ * Errors included, fails that operation only, and the writer goes on with the next one.
+ */
+public class BatchingAVLTree implements AutoCloseable {
+
+	private static final int INSERT = 0;
+	private static final int DELETE = 1;
+	private static final int SEARCH = 2;
+	private static final Comparator<Operation<?>> BY_KEY = Comparator.comparingInt(operation -> operation.key);
+
+	private final AVLTree tree;
+	private final int maxBatch;
+	private final int maxPending;
+	private final ConcurrentLinkedQueue<Operation<?>> queue;
+	private final Semaphore room; // one permit for every operation that may still be queued
+	private final Thread writer;
+	private volatile boolean closed; // no new operations
+	private volatile boolean stopped; // the writer leaves, set once every operation is applied
+	private volatile long batches; // written by the writer only
+	private volatile long applied; // written by the writer only
+
+	public BatchingAVLTree() { // Builder
+		this(new AVLTree(), 1024, 1 << 16);
+	}
+
+	/**
+	 * public BatchingAVLTree(AVLTree tree, int maxBatch, int maxPending)
+	 *
+	 * Wraps tree, which must not be used directly afterwards, and starts its writer thread.
+	 * Throws IllegalArgumentException if maxBatch < 1 or maxPending < maxBatch.
+	 */
+	public BatchingAVLTree(AVLTree tree, int maxBatch, int maxPending) {
+		if (maxBatch < 1 || maxPending < maxBatch)
+			throw new IllegalArgumentException("maxBatch " + maxBatch + ", maxPending " + maxPending);
+		this.tree = tree;
+		this.maxBatch = maxBatch;
+		this.maxPending = maxPending;
+		this.queue = new ConcurrentLinkedQueue<>();
+		this.room = new Semaphore(maxPending);
+		this.writer = new Thread(this::write, "BatchingAVLTree writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * public CompletableFuture<Integer> insert(int k, String i)
+	 *
+	 * Queues AVLTree.insert(k, i); the future completes with its result once the writer applied it.
+	 * Cancelling the future does not withdraw the operation.
+	 * Throws IllegalStateException if the tree is closed.
+	 */
+	public CompletableFuture<Integer> insert(int k, String i) {
+		return submit(new Operation<>(INSERT, k, i));
+	}
+
+	/**
+	 * public CompletableFuture<Integer> delete(int k)
+	 *
+	 * Queues AVLTree.delete(k); the future completes with its result once the writer applied it.
+	 * Throws IllegalStateException if the tree is closed.
+	 */
+	public CompletableFuture<Integer> delete(int k) {
+		return submit(new Operation<>(DELETE, k, null));
+	}
+
+	/**
+	 * public CompletableFuture<String> search(int k)
+	 *
+	 * Queues AVLTree.search(k), so it sees every operation on k queued before it.
+	 * Throws IllegalStateException if the tree is closed.
+	 */
+	public CompletableFuture<String> search(int k) {
+		return submit(new Operation<>(SEARCH, k, null));
+	}
+
+	/**
+	 * public int pending()
+	 *
+	 * Returns the number of operations queued or in the current batch.
+	 */
+	public int pending() {
+		return this.maxPending - this.room.availablePermits();
+	}
+
+	/**
+	 * public long batches()
+	 *
+	 * Returns the number of batches the writer applied so far.
+	 */
+	public long batches() {
+		return this.batches;
+	}
+
+	/**
+	 * public double meanBatchSize()
+	 *
+	 * Returns the mean number of operations per batch so far, 0 before the first batch.
+	 */
+	public double meanBatchSize() {
+		long batches = this.batches;
+		return batches == 0 ? 0 : (double) this.applied / batches;
+	}
+
+	/**
+	 * public void close()
+	 *
+	 * Stops taking operations, waits until the writer applied every queued one and stops the writer.
+	 * The wrapped tree may be used directly afterwards. Closing twice does nothing.
+	 * Throws IllegalStateException if called on the writer thread, e.g. from a non-async callback of a future.
+	 */
+	@Override
+	public void close() {
+		if (Thread.currentThread() == this.writer)
+			throw new IllegalStateException("close from the writer thread");
+		synchronized (this.room) {
+			if (this.closed)
+				return;
+			this.closed = true;
+		}
+		this.room.acquireUninterruptibly(this.maxPending); // every permit back: all accepted operations are applied
+		this.room.release(this.maxPending); // late producers see closed and give theirs back
+		this.stopped = true;
+		LockSupport.unpark(this.writer);
+		boolean interrupted = false;
+		while (this.writer.isAlive()) {
+			try {
+				this.writer.join();
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private <T> CompletableFuture<T> submit(Operation<T> operation) {
+		this.room.acquireUninterruptibly();
+		if (this.closed) { // checked under the permit, so close waits for the operation if it is accepted
+			this.room.release();
+			throw new IllegalStateException("closed");
+		}
+		this.queue.offer(operation);
+		LockSupport.unpark(this.writer);
+		return operation.future.copy(); // callers cannot complete or cancel the writer's future
+	}
+
+	private void write() { // the writer thread: drains, sorts and applies batches until stopped
+		Operation<?>[] batch = new Operation<?>[this.maxBatch];
+		while (!this.stopped) {
+			int n = 0;
+			Operation<?> operation;
+			while (n < batch.length && (operation = this.queue.poll()) != null) {
+				batch[n++] = operation;
+			}
+			if (n == 0) {
+				LockSupport.park(this); // a producer unparks after queueing, so a wake-up is never lost
+				continue;
+			}
+			int j = 0;
+			try {
+				Arrays.sort(batch, 0, n, BY_KEY); // stable: same-key operations keep their queue order
+				for (; j < n; j++) {
+					apply(batch[j]);
+					batch[j] = null;
+				}
+			}
+			catch (Throwable e) { // outside any one operation, e.g. out of memory while sorting: fails the rest of the batch
+				for (; j < n; j++) {
+					batch[j].future.completeExceptionally(e);
+					batch[j] = null;
+				}
+			}
+			finally {
+				this.batches++;
+				this.applied += n;
+				this.room.release(n);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void apply(Operation<?> operation) {
+		try {
+			switch (operation.kind) {
+				case INSERT:
+					((Operation<Integer>) operation).future.complete(this.tree.insert(operation.key, operation.info));
+					break;
+				case DELETE:
+					((Operation<Integer>) operation).future.complete(this.tree.delete(operation.key));
+					break;
+				default:
+					((Operation<String>) operation).future.complete(this.tree.search(operation.key));
+			}
+		}
+		catch (Throwable e) { // fails this operation only, the writer must outlive it
+			operation.future.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * private static class Operation<T>
+	 *
+	 * One queued operation, and the future of its result.
+	 */
+	private static class Operation<T> {
+
+		private final CompletableFuture<T> future = new CompletableFuture<>();
+		private final int kind;
+		private final int key;
+		private final String info;
+
+		Operation(int kind, int key, String info) {
+			this.kind = kind;
+			this.key = key;
+			this.info = info;
+		}
+	}
+}
@@ -0,0 +1,786 @@
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ConcurrentAVLMap
+ * A concurrent AVL tree with distinct integer keys and non-null info, after the optimistic
+ * relaxed-balance tree of Bronson, Casper, Chafi and Olukotun ("A Practical Concurrent Binary Search Tree").
+ *
+ * Readers take no locks: they walk hand-over-hand and validate every step against the version of the
+ * node they came from, which changes whenever that node shrinks (goes down in a rotation) or is unlinked.
+ * Writers lock only the nodes they change, parent before child, so writes in different subtrees don't contend.
+ * Deleting a node with two children only clears its info and leaves it as a routing node; routing nodes are
+ * unlinked by the rebalancing that follows once they have at most one child (also right after a double
+ * rotation moved them down). Heights may be briefly off while rebalancing is in progress (relaxed balance)
+ * and are fixed bottom-up with the same single and double rotations as AVLTree.insertionRebalance.
+ *
+ * The rotations follow AVLTree's case analysis (a single rotation, or a double one when the heavy child leans
+ * the other way) but are not AVLTree's code. AVLTree.rotateLeft/rotateRight relink a node in several steps
+ * and refresh sizes and aggregates up to the root, all assuming no one else is in the tree. Here every
+ * rotation must mark the node that goes down as shrinking, relink only the nodes it holds locks on, and
+ * work from heights that other threads may be changing; so the tree has its own nodes, without sizes.
+ * For the same reason it is not a drop-in replacement for AVLTree: insert and delete return 0 or -1, never
+ * a number of rebalancing operations, as rebalancing may be finished by other threads.
+ *
+ * floor, ceiling, lower and higher walk down like search, validating every step the same way, and return
+ * an immutable copy of the key and info they found. range and descendingRange are weakly consistent: every
+ * step is such a walk from the key returned last, so they never fail and return every key in order, with
+ * the items present throughout the iteration always among them.
+ */
+public class ConcurrentAVLMap {
+
+	private static final long UNLINKED = 1L; // version bits
+	private static final long SHRINKING = 2L;
+	private static final int SPIN_COUNT = 100;
+
+	private static final int UNLINK_REQUIRED = -1; // node conditions, or else the height the node should have
+	private static final int REBALANCE_REQUIRED = -2;
+	private static final int NOTHING_REQUIRED = -3;
+
+	private static final Object RETRY = new Object(); // returned by the attempt methods when a validation failed
+
+	private final Node rootHolder; // the root of the tree is rootHolder.right
+	private final LongAdder size;
+
+	public ConcurrentAVLMap() { // Builder
+		this.rootHolder = new Node(Integer.MIN_VALUE, 1, null, null);
+		this.size = new LongAdder();
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree has no items
+	 */
+	public boolean empty() {
+		return size() == 0;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of items in the tree. Exact when no write is in progress.
+	 */
+	public int size() {
+		return this.size.intValue();
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null. Takes no locks.
+	 */
+	public String search(int k) {
+		while (true) {
+			Node right = this.rootHolder.right;
+			if (right == null)
+				return null;
+			if (k == right.key)
+				return right.info;
+			long version = right.version;
+			if (isShrinkingOrUnlinked(version)) {
+				waitUntilNotShrinking(right);
+			}
+			else if (right == this.rootHolder.right) {
+				Object result = attemptSearch(k, right, version);
+				if (result != RETRY)
+					return (String) result;
+			}
+		}
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i to the tree.
+	 * returns 0, or -1 if an item with key k already exists in the tree. Unlike AVLTree.insert,
+	 * it never returns a number of rebalancing operations: other threads may finish the rebalancing.
+	 * Throws NullPointerException if i is null.
+	 */
+	public int insert(int k, String i) {
+		if (i == null)
+			throw new NullPointerException("info");
+		Object result = update(k, i);
+		if (result != null)
+			return -1;
+		this.size.increment();
+		return 0;
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from the tree, if it is there.
+	 * returns 0, or -1 if an item with key k was not found in the tree; like insert, never a number
+	 * of rebalancing operations.
+	 */
+	public int delete(int k) {
+		Object result = update(k, null);
+		if (result == null)
+			return -1;
+		this.size.decrement();
+		return 0;
+	}
+
+	/**
+	 * public Map.Entry<Integer, String> floor(int k)
+	 *
+	 * Returns the item with the largest key <= k, or null if there is no such key. Takes no locks.
+	 */
+	public Map.Entry<Integer, String> floor(int k) {
+		return navigate(k, true, true);
+	}
+
+	/**
+	 * public Map.Entry<Integer, String> ceiling(int k)
+	 *
+	 * Returns the item with the smallest key >= k, or null if there is no such key. Takes no locks.
+	 */
+	public Map.Entry<Integer, String> ceiling(int k) {
+		return navigate(k, false, true);
+	}
+
+	/**
+	 * public Map.Entry<Integer, String> lower(int k)
+	 *
+	 * Returns the item with the largest key < k, or null if there is no such key. Takes no locks.
+	 */
+	public Map.Entry<Integer, String> lower(int k) {
+		return navigate(k, true, false);
+	}
+
+	/**
+	 * public Map.Entry<Integer, String> higher(int k)
+	 *
+	 * Returns the item with the smallest key > k, or null if there is no such key. Takes no locks.
+	 */
+	public Map.Entry<Integer, String> higher(int k) {
+		return navigate(k, false, false);
+	}
+
+	/**
+	 * public Iterator<Map.Entry<Integer, String>> range(int lo, int hi)
+	 *
+	 * Returns a weakly consistent iterator over the items with lo <= key <= hi, in ascending order.
+	 * Every step is a higher walk from the key returned last, O(log n), and takes no locks.
+	 */
+	public Iterator<Map.Entry<Integer, String>> range(int lo, int hi) {
+		return new RangeIterator(lo > hi ? null : ceiling(lo), hi, true);
+	}
+
+	/**
+	 * public Iterator<Map.Entry<Integer, String>> descendingRange(int lo, int hi)
+	 *
+	 * Returns a weakly consistent iterator over the items with lo <= key <= hi, in descending order.
+	 * Same costs as range(lo, hi).
+	 */
+	public Iterator<Map.Entry<Integer, String>> descendingRange(int lo, int hi) {
+		return new RangeIterator(lo > hi ? null : floor(hi), lo, false);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map.Entry<Integer, String> navigate(int k, boolean below, boolean inclusive) { //closest item below (or above) k
+		while (true) {
+			Node right = this.rootHolder.right;
+			if (right == null)
+				return null;
+			long version = right.version;
+			if (isShrinkingOrUnlinked(version)) {
+				waitUntilNotShrinking(right);
+			}
+			else if (right == this.rootHolder.right) {
+				Object result = attemptNavigate(k, below, inclusive, right, version);
+				if (result != RETRY)
+					return (Map.Entry<Integer, String>) result;
+			}
+		}
+	}
+
+	private Object attemptNavigate(int k, boolean below, boolean inclusive, Node node, long nodeVersion) { // the closest item of the subtree of node, or null
+		String info = node.info;
+		boolean candidate = node.key == k ? inclusive : below == node.key < k; // node's key is on the wanted side of k
+		if (candidate && info != null && node.key == k)
+			return new AbstractMap.SimpleImmutableEntry<>(k, info);
+		boolean goLeft = node.key == k ? below : k < node.key;
+		Object result = attemptNavigateChild(k, below, inclusive, node, nodeVersion, goLeft); // the side of k holds the closer keys
+		if (result != null || !candidate || node.key == k)
+			return result;
+		if (info != null)
+			return new AbstractMap.SimpleImmutableEntry<>(node.key, info);
+		return attemptNavigateChild(k, below, inclusive, node, nodeVersion, !goLeft); // a routing node: the nearest item on its other side
+	}
+
+	private Object attemptNavigateChild(int k, boolean below, boolean inclusive, Node node, long nodeVersion, boolean goLeft) {
+		while (true) {
+			Node child = goLeft ? node.left : node.right;
+			if (child == null) {
+				if (node.version != nodeVersion)
+					return RETRY;
+				return null;
+			}
+			long childVersion = child.version;
+			if (isShrinkingOrUnlinked(childVersion)) {
+				waitUntilNotShrinking(child);
+				if (node.version != nodeVersion)
+					return RETRY;
+			}
+			else if (child != (goLeft ? node.left : node.right)) {
+				if (node.version != nodeVersion)
+					return RETRY;
+			}
+			else {
+				if (node.version != nodeVersion)
+					return RETRY;
+				Object result = attemptNavigate(k, below, inclusive, child, childVersion); // hand-over-hand, as in attemptSearch
+				if (result != RETRY)
+					return result;
+			}
+		}
+	}
+
+	private Object attemptSearch(int k, Node node, long nodeVersion) { // node's key range contains k as long as its version is nodeVersion
+		boolean goLeft = k < node.key;
+		while (true) {
+			Node child = goLeft ? node.left : node.right;
+			if (child == null) {
+				if (node.version != nodeVersion)
+					return RETRY;
+				return null; // k does not exist in tree
+			}
+			if (k == child.key)
+				return child.info;
+			long childVersion = child.version;
+			if (isShrinkingOrUnlinked(childVersion)) {
+				waitUntilNotShrinking(child);
+				if (node.version != nodeVersion)
+					return RETRY;
+			}
+			else if (child != (goLeft ? node.left : node.right)) {
+				if (node.version != nodeVersion)
+					return RETRY;
+			}
+			else {
+				if (node.version != nodeVersion)
+					return RETRY;
+				Object result = attemptSearch(k, child, childVersion); // hand-over-hand: child is valid from here on
+				if (result != RETRY)
+					return result;
+			}
+		}
+	}
+
+	private Object update(int k, String info) { // inserts (info != null) or deletes (info == null), returns the info found before
+		while (true) {
+			Node right = this.rootHolder.right;
+			if (right == null) {
+				if (info == null)
+					return null;
+				synchronized (this.rootHolder) {
+					if (this.rootHolder.right == null) { //insert node as a root
+						this.rootHolder.right = new Node(k, 1, info, this.rootHolder);
+						this.rootHolder.height = 2;
+						return null;
+					}
+				}
+			}
+			else {
+				long version = right.version;
+				if (isShrinkingOrUnlinked(version)) {
+					waitUntilNotShrinking(right);
+				}
+				else if (right == this.rootHolder.right) {
+					Object result = attemptUpdate(k, info, this.rootHolder, right, version);
+					if (result != RETRY)
+						return result;
+				}
+			}
+		}
+	}
+
+	private Object attemptUpdate(int k, String info, Node parent, Node node, long nodeVersion) {
+		if (k == node.key)
+			return attemptNodeUpdate(info, parent, node);
+		boolean goLeft = k < node.key;
+		while (true) {
+			Node child = goLeft ? node.left : node.right;
+			if (node.version != nodeVersion)
+				return RETRY;
+			if (child == null) {
+				if (info == null) // key k was not found in the tree
+					return null;
+				Node damaged = null;
+				boolean inserted = false;
+				synchronized (node) {
+					if (node.version != nodeVersion)
+						return RETRY;
+					if ((goLeft ? node.left : node.right) == null) {
+						Node leaf = new Node(k, 1, info, node);
+						if (goLeft)
+							node.left = leaf;
+						else
+							node.right = leaf;
+						inserted = true;
+						damaged = fixHeight(node);
+					}
+				}
+				if (inserted) {
+					fixHeightAndRebalance(damaged);
+					return null;
+				}
+			}
+			else {
+				long childVersion = child.version;
+				if (isShrinkingOrUnlinked(childVersion)) {
+					waitUntilNotShrinking(child);
+				}
+				else if (child == (goLeft ? node.left : node.right)) {
+					if (node.version != nodeVersion)
+						return RETRY;
+					Object result = attemptUpdate(k, info, node, child, childVersion);
+					if (result != RETRY)
+						return result;
+				}
+			}
+		}
+	}
+
+	private Object attemptNodeUpdate(String info, Node parent, Node node) { // node holds the key
+		if (info == null) { // delete
+			if (node.info == null)
+				return null;
+			if (node.left == null || node.right == null) { // unlink the node
+				Object previous;
+				Node damaged;
+				synchronized (parent) {
+					if (isUnlinked(parent.version) || node.parent != parent)
+						return RETRY;
+					synchronized (node) {
+						previous = node.info;
+						if (previous == null)
+							return null;
+						if (!attemptUnlink(parent, node))
+							return RETRY;
+					}
+					damaged = fixHeight(parent);
+				}
+				fixHeightAndRebalance(damaged);
+				return previous;
+			}
+		}
+		else if (node.info != null) { // key k already exists in the tree
+			return node.info;
+		}
+		synchronized (node) {
+			if (isUnlinked(node.version))
+				return RETRY;
+			Object previous = node.info;
+			if (info == null) {
+				if (previous == null)
+					return null;
+				if (node.left == null || node.right == null) // must be unlinked instead
+					return RETRY;
+				node.info = null; // node becomes a routing node
+				return previous;
+			}
+			if (previous == null) // routing node gets an item again
+				node.info = info;
+			return previous;
+		}
+	}
+
+	private static boolean attemptUnlink(Node parent, Node node) { // locks of parent and node are held
+		Node parentLeft = parent.left;
+		Node parentRight = parent.right;
+		if (parentLeft != node && parentRight != node)
+			return false;
+		Node left = node.left;
+		Node right = node.right;
+		if (left != null && right != null)
+			return false;
+		Node splice = left != null ? left : right;
+		if (parentLeft == node)
+			parent.left = splice;
+		else
+			parent.right = splice;
+		if (splice != null)
+			splice.parent = parent;
+		node.version = UNLINKED;
+		node.info = null;
+		return true;
+	}
+
+	private static int nodeCondition(Node node) {
+		Node left = node.left;
+		Node right = node.right;
+		if ((left == null || right == null) && node.info == null)
+			return UNLINK_REQUIRED;
+		int leftHeight = height(left);
+		int rightHeight = height(right);
+		int balance = leftHeight - rightHeight;
+		if (balance < -1 || balance > 1)
+			return REBALANCE_REQUIRED;
+		int height = 1 + Math.max(leftHeight, rightHeight);
+		return node.height != height ? height : NOTHING_REQUIRED;
+	}
+
+	private static Node fixHeight(Node node) { // lock of node is held, returns the next node to repair or null
+		int condition = nodeCondition(node);
+		switch (condition) {
+			case REBALANCE_REQUIRED:
+			case UNLINK_REQUIRED:
+				return node;
+			case NOTHING_REQUIRED:
+				return null;
+			default:
+				node.height = condition;
+				return node.parent;
+		}
+	}
+
+	private void fixHeightAndRebalance(Node node) { // walks up from node to the root, repairing the nodes that need it
+		while (node != null && node.parent != null) { //only reads until a node needs repair, so a full walk doesn't contend
+			int condition = nodeCondition(node);
+			Node parent = node.parent;
+			Node next = node;
+			if (condition == NOTHING_REQUIRED || isUnlinked(node.version)) {
+				next = null;
+			}
+			else if (condition != UNLINK_REQUIRED && condition != REBALANCE_REQUIRED) {
+				synchronized (node) {
+					next = fixHeight(node);
+				}
+			}
+			else {
+				synchronized (parent) {
+					if (!isUnlinked(parent.version) && node.parent == parent) {
+						synchronized (node) {
+							next = rebalance(parent, node);
+						}
+					}
+				}
+			}
+			node = next != null ? next : parent; // a repair that ended below an ancestor may still leave it stale
+		}
+	}
+
+	private static Node rebalance(Node parent, Node node) { // locks of parent and node are held
+		Node left = node.left;
+		Node right = node.right;
+		if ((left == null || right == null) && node.info == null) { // routing node that can go
+			if (attemptUnlink(parent, node))
+				return fixHeight(parent);
+			return node;
+		}
+		int leftHeight = height(left);
+		int rightHeight = height(right);
+		int balance = leftHeight - rightHeight;
+		if (balance > 1)
+			return rebalanceToRight(parent, node, left, rightHeight);
+		if (balance < -1)
+			return rebalanceToLeft(parent, node, right, leftHeight);
+		int height = 1 + Math.max(leftHeight, rightHeight);
+		if (height != node.height) {
+			node.height = height;
+			return fixHeight(parent);
+		}
+		return null;
+	}
+
+	private static Node rebalanceToRight(Node parent, Node node, Node left, int rightHeight) { // node is left-heavy
+		synchronized (left) {
+			int leftHeight = left.height;
+			if (leftHeight - rightHeight <= 1)
+				return node; // changed meanwhile, retry
+			Node leftRight = left.right;
+			int leftLeftHeight = height(left.left);
+			int leftRightHeight = height(leftRight);
+			if (leftLeftHeight >= leftRightHeight)
+				return rotateRight(parent, node, left, rightHeight, leftLeftHeight, leftRight, leftRightHeight);
+			synchronized (leftRight) {
+				leftRightHeight = leftRight.height;
+				if (leftLeftHeight >= leftRightHeight)
+					return rotateRight(parent, node, left, rightHeight, leftLeftHeight, leftRight, leftRightHeight);
+				int leftRightLeftHeight = height(leftRight.left);
+				int difference = leftLeftHeight - leftRightLeftHeight;
+				if (difference >= -1 && difference <= 1)
+					return rotateRightOverLeft(parent, node, left, rightHeight, leftLeftHeight, leftRight, leftRightLeftHeight);
+			}
+			return rebalanceToLeft(node, left, leftRight, leftLeftHeight); // fix the left child first
+		}
+	}
+
+	private static Node rebalanceToLeft(Node parent, Node node, Node right, int leftHeight) { // node is right-heavy
+		synchronized (right) {
+			int rightHeight = right.height;
+			if (leftHeight - rightHeight >= -1)
+				return node; // changed meanwhile, retry
+			Node rightLeft = right.left;
+			int rightLeftHeight = height(rightLeft);
+			int rightRightHeight = height(right.right);
+			if (rightRightHeight >= rightLeftHeight)
+				return rotateLeft(parent, node, leftHeight, right, rightLeft, rightLeftHeight, rightRightHeight);
+			synchronized (rightLeft) {
+				rightLeftHeight = rightLeft.height;
+				if (rightRightHeight >= rightLeftHeight)
+					return rotateLeft(parent, node, leftHeight, right, rightLeft, rightLeftHeight, rightRightHeight);
+				int rightLeftRightHeight = height(rightLeft.right);
+				int difference = rightRightHeight - rightLeftRightHeight;
+				if (difference >= -1 && difference <= 1)
+					return rotateLeftOverRight(parent, node, leftHeight, right, rightLeft, rightRightHeight, rightLeftRightHeight);
+			}
+			return rebalanceToRight(node, right, rightLeft, rightRightHeight); // fix the right child first
+		}
+	}
+
+	private static Node rotateRight(Node parent, Node node, Node left, int rightHeight, int leftLeftHeight, Node leftRight, int leftRightHeight) {
+		long nodeVersion = node.version;
+		Node parentLeft = parent.left;
+		node.version = beginShrink(nodeVersion);
+		node.left = leftRight;
+		if (leftRight != null)
+			leftRight.parent = node;
+		left.right = node;
+		node.parent = left;
+		if (parentLeft == node)
+			parent.left = left;
+		else
+			parent.right = left;
+		left.parent = parent;
+		int nodeHeight = 1 + Math.max(leftRightHeight, rightHeight);
+		node.height = nodeHeight;
+		left.height = 1 + Math.max(leftLeftHeight, nodeHeight);
+		node.version = endShrink(nodeVersion);
+		int nodeBalance = leftRightHeight - rightHeight; // the nodes that may still need repair
+		if (nodeBalance < -1 || nodeBalance > 1)
+			return node;
+		if ((leftRight == null || rightHeight == 0) && node.info == null)
+			return node;
+		int leftBalance = leftLeftHeight - nodeHeight;
+		if (leftBalance < -1 || leftBalance > 1)
+			return left;
+		if (leftLeftHeight == 0 && left.info == null)
+			return left;
+		return fixHeight(parent);
+	}
+
+	private static Node rotateLeft(Node parent, Node node, int leftHeight, Node right, Node rightLeft, int rightLeftHeight, int rightRightHeight) {
+		long nodeVersion = node.version;
+		Node parentLeft = parent.left;
+		node.version = beginShrink(nodeVersion);
+		node.right = rightLeft;
+		if (rightLeft != null)
+			rightLeft.parent = node;
+		right.left = node;
+		node.parent = right;
+		if (parentLeft == node)
+			parent.left = right;
+		else
+			parent.right = right;
+		right.parent = parent;
+		int nodeHeight = 1 + Math.max(leftHeight, rightLeftHeight);
+		node.height = nodeHeight;
+		right.height = 1 + Math.max(nodeHeight, rightRightHeight);
+		node.version = endShrink(nodeVersion);
+		int nodeBalance = leftHeight - rightLeftHeight; // the nodes that may still need repair
+		if (nodeBalance < -1 || nodeBalance > 1)
+			return node;
+		if ((rightLeft == null || leftHeight == 0) && node.info == null)
+			return node;
+		int rightBalance = nodeHeight - rightRightHeight;
+		if (rightBalance < -1 || rightBalance > 1)
+			return right;
+		if (rightRightHeight == 0 && right.info == null)
+			return right;
+		return fixHeight(parent);
+	}
+
+	private static Node rotateRightOverLeft(Node parent, Node node, Node left, int rightHeight, int leftLeftHeight, Node leftRight, int leftRightLeftHeight) {
+		long nodeVersion = node.version;
+		long leftVersion = left.version;
+		Node parentLeft = parent.left;
+		Node leftRightLeft = leftRight.left;
+		Node leftRightRight = leftRight.right;
+		int leftRightRightHeight = height(leftRightRight);
+		node.version = beginShrink(nodeVersion);
+		left.version = beginShrink(leftVersion);
+		node.left = leftRightRight;
+		if (leftRightRight != null)
+			leftRightRight.parent = node;
+		left.right = leftRightLeft;
+		if (leftRightLeft != null)
+			leftRightLeft.parent = left;
+		leftRight.left = left;
+		left.parent = leftRight;
+		leftRight.right = node;
+		node.parent = leftRight;
+		if (parentLeft == node)
+			parent.left = leftRight;
+		else
+			parent.right = leftRight;
+		leftRight.parent = parent;
+		int nodeHeight = 1 + Math.max(leftRightRightHeight, rightHeight);
+		node.height = nodeHeight;
+		int leftHeight = 1 + Math.max(leftLeftHeight, leftRightLeftHeight);
+		left.height = leftHeight;
+		leftRight.height = 1 + Math.max(leftHeight, nodeHeight);
+		node.version = endShrink(nodeVersion);
+		left.version = endShrink(leftVersion);
+		if ((leftLeftHeight == 0 || leftRightLeftHeight == 0) && left.info == null && attemptUnlink(leftRight, left)) { // routing node left with one child
+			leftHeight = leftLeftHeight + leftRightLeftHeight; // the remaining child
+			leftRight.height = 1 + Math.max(leftHeight, nodeHeight);
+		}
+		int nodeBalance = leftRightRightHeight - rightHeight; // the nodes that may still need repair
+		if (nodeBalance < -1 || nodeBalance > 1)
+			return node;
+		if ((leftRightRight == null || rightHeight == 0) && node.info == null)
+			return node;
+		int leftRightBalance = leftHeight - nodeHeight;
+		if (leftRightBalance < -1 || leftRightBalance > 1)
+			return leftRight;
+		return fixHeight(parent);
+	}
+
+	private static Node rotateLeftOverRight(Node parent, Node node, int leftHeight, Node right, Node rightLeft, int rightRightHeight, int rightLeftRightHeight) {
+		long nodeVersion = node.version;
+		long rightVersion = right.version;
+		Node parentLeft = parent.left;
+		Node rightLeftLeft = rightLeft.left;
+		Node rightLeftRight = rightLeft.right;
+		int rightLeftLeftHeight = height(rightLeftLeft);
+		node.version = beginShrink(nodeVersion);
+		right.version = beginShrink(rightVersion);
+		node.right = rightLeftLeft;
+		if (rightLeftLeft != null)
+			rightLeftLeft.parent = node;
+		right.left = rightLeftRight;
+		if (rightLeftRight != null)
+			rightLeftRight.parent = right;
+		rightLeft.right = right;
+		right.parent = rightLeft;
+		rightLeft.left = node;
+		node.parent = rightLeft;
+		if (parentLeft == node)
+			parent.left = rightLeft;
+		else
+			parent.right = rightLeft;
+		rightLeft.parent = parent;
+		int nodeHeight = 1 + Math.max(leftHeight, rightLeftLeftHeight);
+		node.height = nodeHeight;
+		int rightHeight = 1 + Math.max(rightLeftRightHeight, rightRightHeight);
+		right.height = rightHeight;
+		rightLeft.height = 1 + Math.max(nodeHeight, rightHeight);
+		node.version = endShrink(nodeVersion);
+		right.version = endShrink(rightVersion);
+		if ((rightRightHeight == 0 || rightLeftRightHeight == 0) && right.info == null && attemptUnlink(rightLeft, right)) { // routing node right with one child
+			rightHeight = rightRightHeight + rightLeftRightHeight; // the remaining child
+			rightLeft.height = 1 + Math.max(nodeHeight, rightHeight);
+		}
+		int nodeBalance = leftHeight - rightLeftLeftHeight; // the nodes that may still need repair
+		if (nodeBalance < -1 || nodeBalance > 1)
+			return node;
+		if ((rightLeftLeft == null || leftHeight == 0) && node.info == null)
+			return node;
+		int rightLeftBalance = nodeHeight - rightHeight;
+		if (rightLeftBalance < -1 || rightLeftBalance > 1)
+			return rightLeft;
+		return fixHeight(parent);
+	}
+
+	private static int height(Node node) {
+		return node == null ? 0 : node.height;
+	}
+
+	private static boolean isShrinkingOrUnlinked(long version) {
+		return (version & (SHRINKING | UNLINKED)) != 0;
+	}
+
+	private static boolean isUnlinked(long version) {
+		return version == UNLINKED;
+	}
+
+	private static long beginShrink(long version) {
+		return version | SHRINKING;
+	}
+
+	private static long endShrink(long version) { // clears the shrinking bit and counts one more shrink
+		return (version | SHRINKING) + SHRINKING;
+	}
+
+	private static void waitUntilNotShrinking(Node node) { // the shrinking node is locked by the rotating thread
+		long version = node.version;
+		if ((version & SHRINKING) == 0)
+			return;
+		for (int i = 0; i < SPIN_COUNT; i++) {
+			if (node.version != version)
+				return;
+			Thread.onSpinWait();
+		}
+		synchronized (node) { // wait for the rotation to end
+		}
+	}
+
+	/**
+	 * private class RangeIterator
+	 *
+	 * Weakly consistent iterator between a first item and a bound key, stepping with higher/lower.
+	 */
+	private class RangeIterator implements Iterator<Map.Entry<Integer, String>> {
+
+		private Map.Entry<Integer, String> next;
+		private final int bound;
+		private final boolean ascending;
+
+		RangeIterator(Map.Entry<Integer, String> first, int bound, boolean ascending) {
+			this.bound = bound;
+			this.ascending = ascending;
+			this.next = inBound(first) ? first : null;
+		}
+
+		public boolean hasNext() {
+			return this.next != null;
+		}
+
+		public Map.Entry<Integer, String> next() {
+			if (this.next == null)
+				throw new NoSuchElementException();
+			Map.Entry<Integer, String> current = this.next;
+			int key = current.getKey();
+			Map.Entry<Integer, String> following = this.ascending ? higher(key) : lower(key);
+			this.next = inBound(following) ? following : null;
+			return current;
+		}
+
+		private boolean inBound(Map.Entry<Integer, String> item) {
+			if (item == null)
+				return false;
+			return this.ascending ? item.getKey() <= this.bound : item.getKey() >= this.bound;
+		}
+	}
+
+	/**
+	 * private static class Node
+	 *
+	 * A tree node; height is 1 for a leaf and 0 for a missing child, info is null for a routing node.
+	 */
+	private static class Node {
+
+		private final int key;
+		private volatile int height;
+		private volatile String info;
+		private volatile long version;
+		private volatile Node parent;
+		private volatile Node left;
+		private volatile Node right;
+
+		Node(int key, int height, String info, Node parent) {
+			this.key = key;
+			this.height = height;
+			this.info = info;
+			this.parent = parent;
+		}
+	}
+}
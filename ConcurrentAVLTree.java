@@ -0,0 +1,273 @@
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * ConcurrentAVLTree
+ * A thread-safe AVLTree. Reads (search, min, max, size and the navigation queries) first run
+ * without any lock and are validated against the StampedLock version stamp; only if a write
+ * happened meanwhile they retry under the read lock. insert and delete take the write lock.
+ */
+public class ConcurrentAVLTree {
+
+	private static final int MAX_DEPTH = 64; // an AVL tree of less than 2^31 nodes is less than 45 levels high
+	private static final RuntimeException INCONSISTENT = new RuntimeException("tree changed during an optimistic read", null, false, false) {}; // no stack trace
+
+	private final AVLTree tree;
+	private final StampedLock lock;
+
+	public ConcurrentAVLTree() { // Builder
+		this(new AVLTree());
+	}
+
+	/**
+	 * public ConcurrentAVLTree(AVLTree tree)
+	 *
+	 * Wraps tree, which must not be used directly afterwards.
+	 */
+	public ConcurrentAVLTree(AVLTree tree) {
+		this.tree = tree;
+		this.lock = new StampedLock();
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	public String search(int k) {
+		long stamp = this.lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				AVLTree.IAVLNode node = locate(k, false, true, true);
+				String info = node == null ? null : node.getValue();
+				if (this.lock.validate(stamp))
+					return info;
+			}
+			catch (RuntimeException e) { // saw the tree in the middle of a write
+			}
+		}
+		stamp = this.lock.readLock();
+		try {
+			AVLTree.IAVLNode node = locate(k, false, true, true);
+			return node == null ? null : node.getValue();
+		}
+		finally {
+			this.lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * public Map.Entry<Integer, String> floor(int k)
+	 *
+	 * Returns the key and info of the item with the largest key <= k, or null if there is no such key.
+	 */
+	public Map.Entry<Integer, String> floor(int k) {
+		return navigate(k, true, true);
+	}
+
+	/**
+	 * public Map.Entry<Integer, String> ceiling(int k)
+	 *
+	 * Returns the key and info of the item with the smallest key >= k, or null if there is no such key.
+	 */
+	public Map.Entry<Integer, String> ceiling(int k) {
+		return navigate(k, false, true);
+	}
+
+	/**
+	 * public Map.Entry<Integer, String> lower(int k)
+	 *
+	 * Returns the key and info of the item with the largest key < k, or null if there is no such key.
+	 */
+	public Map.Entry<Integer, String> lower(int k) {
+		return navigate(k, true, false);
+	}
+
+	/**
+	 * public Map.Entry<Integer, String> higher(int k)
+	 *
+	 * Returns the key and info of the item with the smallest key > k, or null if there is no such key.
+	 */
+	public Map.Entry<Integer, String> higher(int k) {
+		return navigate(k, false, false);
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public String min() {
+		return minOrMax(true);
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public String max() {
+		return minOrMax(false);
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of nodes in the tree.
+	 */
+	public int size() {
+		long stamp = this.lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				int size = this.tree.size();
+				if (this.lock.validate(stamp))
+					return size;
+			}
+			catch (RuntimeException e) { // saw the tree in the middle of a write
+			}
+		}
+		stamp = this.lock.readLock();
+		try {
+			return this.tree.size();
+		}
+		finally {
+			this.lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * Same as AVLTree.insert, under the write lock.
+	 */
+	public int insert(int k, String i) {
+		long stamp = this.lock.writeLock();
+		try {
+			return this.tree.insert(k, i);
+		}
+		finally {
+			this.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * Same as AVLTree.delete, under the write lock.
+	 */
+	public int delete(int k) {
+		long stamp = this.lock.writeLock();
+		try {
+			return this.tree.delete(k);
+		}
+		finally {
+			this.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Same as AVLTree.keysToArray, under the read lock.
+	 */
+	public int[] keysToArray() {
+		long stamp = this.lock.readLock();
+		try {
+			return this.tree.keysToArray();
+		}
+		finally {
+			this.lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Same as AVLTree.infoToArray, under the read lock.
+	 */
+	public String[] infoToArray() {
+		long stamp = this.lock.readLock();
+		try {
+			return this.tree.infoToArray();
+		}
+		finally {
+			this.lock.unlockRead(stamp);
+		}
+	}
+
+	private static Map.Entry<Integer, String> entry(AVLTree.IAVLNode node) { // the live node must not escape the lock
+		return node == null ? null : new AbstractMap.SimpleImmutableEntry<>(node.getKey(), node.getValue());
+	}
+
+	private Map.Entry<Integer, String> navigate(int k, boolean below, boolean inclusive) { // an immutable copy, taken under the stamp
+		long stamp = this.lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				Map.Entry<Integer, String> item = entry(locate(k, below, inclusive, false));
+				if (this.lock.validate(stamp))
+					return item;
+			}
+			catch (RuntimeException e) { // saw the tree in the middle of a write
+			}
+		}
+		stamp = this.lock.readLock();
+		try {
+			return entry(locate(k, below, inclusive, false));
+		}
+		finally {
+			this.lock.unlockRead(stamp);
+		}
+	}
+
+	private String minOrMax(boolean min) {
+		long stamp = this.lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				String info = min ? this.tree.min() : this.tree.max();
+				if (this.lock.validate(stamp))
+					return info;
+			}
+			catch (RuntimeException e) { // saw the tree in the middle of a write
+			}
+		}
+		stamp = this.lock.readLock();
+		try {
+			return min ? this.tree.min() : this.tree.max();
+		}
+		finally {
+			this.lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Walks down from the root at most MAX_DEPTH levels, so a walk over links torn by a concurrent
+	 * rotation ends (throwing INCONSISTENT) instead of looping. If exact, returns the node of k or null;
+	 * otherwise the closest node below (or above) k, as AVLTree.floor/ceiling/lower/higher.
+	 */
+	private AVLTree.IAVLNode locate(int k, boolean below, boolean inclusive, boolean exact) {
+		AVLTree.IAVLNode candidate = null;
+		AVLTree.IAVLNode node = this.tree.getRoot();
+		for (int depth = 0; node != null && node.isRealNode(); depth++) {
+			if (depth == MAX_DEPTH)
+				throw INCONSISTENT;
+			int key = node.getKey();
+			if (key == k && inclusive)
+				return node;
+			if (exact) {
+				node = k < key ? node.getLeft() : node.getRight();
+			}
+			else if (below ? key < k : key > k) { //node is a candidate, look for a closer one on the side of k
+				candidate = node;
+				node = below ? node.getRight() : node.getLeft();
+			}
+			else {
+				node = below ? node.getLeft() : node.getRight();
+			}
+		}
+		return candidate;
+	}
+}
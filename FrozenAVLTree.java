@@ -0,0 +1,202 @@
+import java.util.Arrays;
+
+/**
+ * FrozenAVLTree
+ * An immutable, array-based copy of the items of an AVLTree (see AVLTree.freeze()) for trees that are
+ * built once and then only read.
+ *
+ * The keys are laid out in Eytzinger (BFS) order: the children of slot j are slots 2j and 2j + 1, so a
+ * search is a loop over one int array with no pointers, whose first levels share a few cache lines and
+ * whose next slot is computed without a branch. Every slot also records its in-order position, which
+ * indexes the sorted keys and infos kept beside the layout for rank, select and range queries.
+ * Safe to read from any number of threads.
+ */
+public class FrozenAVLTree {
+
+	private final int[] layout; // Eytzinger order from slot 1; slot 0 is unused
+	private final int[] positions; // in-order position of the key in each slot
+	private final int[] keys; // sorted
+	private final String[] infos; // infos[j] is the info of keys[j]
+
+	/**
+	 * public FrozenAVLTree(int[] keys, String[] infos)
+	 *
+	 * Builds a frozen tree from keys in strictly increasing order, where infos[j] is the info of keys[j].
+	 * The arrays are copied. O(n).
+	 * Throws IllegalArgumentException if the arrays differ in length or keys are not strictly increasing.
+	 */
+	public FrozenAVLTree(int[] keys, String[] infos) {
+		if (keys.length != infos.length)
+			throw new IllegalArgumentException("keys and infos differ in length");
+		for (int j = 1; j < keys.length; j++) {
+			if (keys[j - 1] >= keys[j])
+				throw new IllegalArgumentException("keys are not strictly increasing at index " + j);
+		}
+		this.keys = keys.clone();
+		this.infos = infos.clone();
+		this.layout = new int[keys.length + 1];
+		this.positions = new int[keys.length + 1];
+		fill(1, 0);
+	}
+
+	private int fill(int slot, int position) { // in-order walk of the implicit tree, returns the next position
+		if (slot >= this.layout.length)
+			return position;
+		position = fill(2 * slot, position);
+		this.layout[slot] = this.keys[position];
+		this.positions[slot] = position;
+		return fill(2 * slot + 1, position + 1);
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 */
+	public boolean empty() {
+		return this.layout.length == 1;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of items in the tree.
+	 */
+	public int size() {
+		return this.layout.length - 1;
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	public String search(int k) {
+		int position = lowerBound(k);
+		if (position < this.keys.length && this.keys[position] == k)
+			return this.infos[position];
+		return null;
+	}
+
+	/**
+	 * public int rank(int k)
+	 *
+	 * Returns the number of keys in the tree which are smaller than k, as AVLTree.rank.
+	 */
+	public int rank(int k) {
+		return lowerBound(k);
+	}
+
+	/**
+	 * public int select(int i)
+	 *
+	 * Returns the i'th smallest key (counting from 0), as AVLTree.select(i).getKey().
+	 * Throws IndexOutOfBoundsException if i < 0 or i >= size().
+	 */
+	public int select(int i) {
+		return this.keys[i];
+	}
+
+	/**
+	 * public String infoAt(int i)
+	 *
+	 * Returns the info of the i'th smallest key (counting from 0).
+	 * Throws IndexOutOfBoundsException if i < 0 or i >= size().
+	 */
+	public String infoAt(int i) {
+		return this.infos[i];
+	}
+
+	/**
+	 * public int countInRange(int lo, int hi)
+	 *
+	 * Returns the number of keys x in the tree with lo <= x <= hi, or 0 if lo > hi.
+	 */
+	public int countInRange(int lo, int hi) {
+		if (lo > hi)
+			return 0;
+		return upperBound(hi) - lowerBound(lo);
+	}
+
+	/**
+	 * public int[] keysInRange(int lo, int hi)
+	 *
+	 * Returns the sorted keys x in the tree with lo <= x <= hi, or an empty array if lo > hi.
+	 * Two searches and one array copy.
+	 */
+	public int[] keysInRange(int lo, int hi) {
+		if (lo > hi)
+			return new int[0];
+		int from = lowerBound(lo);
+		return Arrays.copyOfRange(this.keys, from, Math.max(from, upperBound(hi)));
+	}
+
+	/**
+	 * public String[] infoInRange(int lo, int hi)
+	 *
+	 * Returns the infos of the keys x in the tree with lo <= x <= hi, sorted by their respective keys,
+	 * or an empty array if lo > hi.
+	 */
+	public String[] infoInRange(int lo, int hi) {
+		if (lo > hi)
+			return new String[0];
+		int from = lowerBound(lo);
+		return Arrays.copyOfRange(this.infos, from, Math.max(from, upperBound(hi)));
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree,
+	 * or an empty array if the tree is empty.
+	 */
+	public int[] keysToArray() {
+		return this.keys.clone();
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the tree,
+	 * sorted by their respective keys,
+	 * or an empty array if the tree is empty.
+	 */
+	public String[] infoToArray() {
+		return this.infos.clone();
+	}
+
+	/**
+	 * public AVLTree thaw()
+	 *
+	 * Returns a new, mutable AVLTree with the items of this tree, built in O(n).
+	 */
+	public AVLTree thaw() {
+		return new AVLTree(this.keys, this.infos);
+	}
+
+	private int lowerBound(int k) { // number of keys < k
+		int[] layout = this.layout;
+		int n = layout.length - 1;
+		int slot = 1;
+		while (slot <= n) {
+			slot = 2 * slot + (int) (((long) layout[slot] - k) >>> 63); // right child if layout[slot] < k, without a branch
+		}
+		return position(slot);
+	}
+
+	private int upperBound(int k) { // number of keys <= k
+		int[] layout = this.layout;
+		int n = layout.length - 1;
+		int slot = 1;
+		while (slot <= n) {
+			slot = 2 * slot + (int) (((long) k - layout[slot]) >>> 63 ^ 1); // right child if layout[slot] <= k
+		}
+		return position(slot);
+	}
+
+	private int position(int slot) { // the walk went left at the answer for the last time: drop the right turns after it
+		slot >>= Integer.numberOfTrailingZeros(~slot) + 1;
+		return slot == 0 ? this.keys.length : this.positions[slot];
+	}
+}
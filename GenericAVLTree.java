@@ -0,0 +1,272 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * GenericAVLTree
+ * An implementation of a AVL Tree with distinct keys of any type, ordered by a Comparator,
+ * and info of any type.
+ * See LongAVLTree and IntObjAVLTree for variants that keep primitive keys unboxed.
+ */
+public class GenericAVLTree<K, V> extends AbstractAVLTree<GenericAVLTree.Node<K, V>> {
+
+	private final Comparator<? super K> comparator;
+	private Node<K, V> root;
+
+	@SuppressWarnings("unchecked")
+	public GenericAVLTree() { // Builder, keys in their natural order
+		this((Comparator<? super K>) Comparator.naturalOrder());
+	}
+
+	public GenericAVLTree(Comparator<? super K> comparator) { // Builder
+		this.comparator = comparator;
+		this.root = null;
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 */
+	public boolean empty() {
+		return this.root == null;
+	}
+
+	/**
+	 * public V search(K k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	public V search(K k) {
+		Node<K, V> node = TreePosition(k);
+		return node == null ? null : node.info;
+	}
+
+	/**
+	 * public int insert(K k, V i)
+	 *
+	 * inserts an item with key k and info i to the AVL tree.
+	 * returns the number of rebalancing operations (rotations and height changes),
+	 * or -1 if an item with key k already exists in the tree.
+	 */
+	public int insert(K k, V i) {
+		this.rebalanceCounter = 0;
+		this.root = insert(this.root, new Node<>(k, i));
+		return this.rebalanceCounter;
+	}
+
+	/**
+	 * public int delete(K k)
+	 *
+	 * deletes an item with key k from the tree, if it is there.
+	 * returns the number of rebalancing operations (rotations and height changes),
+	 * or -1 if an item with key k was not found in the tree.
+	 */
+	public int delete(K k) {
+		this.rebalanceCounter = -1;
+		this.root = delete(this.root, k);
+		return this.rebalanceCounter;
+	}
+
+	/**
+	 * public V min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public V min() {
+		if (empty()) {
+			return null;
+		}
+		Node<K, V> node = this.root;
+		while (node.left != null) {
+			node = node.left;
+		}
+		return node.info;
+	}
+
+	/**
+	 * public V max()
+	 *
+	 * Returns the info of the item with the largest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public V max() {
+		if (empty()) {
+			return null;
+		}
+		Node<K, V> node = this.root;
+		while (node.right != null) {
+			node = node.right;
+		}
+		return node.info;
+	}
+
+	/**
+	 * public List<K> keysToList()
+	 *
+	 * Returns a sorted list which contains all keys in the tree,
+	 * or an empty list if the tree is empty.
+	 */
+	public List<K> keysToList() {
+		List<K> list = new ArrayList<>(size());
+		fillKeys(this.root, list);
+		return list;
+	}
+
+	/**
+	 * public List<V> infoToList()
+	 *
+	 * Returns a list which contains all info in the tree,
+	 * sorted by their respective keys,
+	 * or an empty list if the tree is empty.
+	 */
+	public List<V> infoToList() {
+		List<V> list = new ArrayList<>(size());
+		fillInfo(this.root, list);
+		return list;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of nodes in the tree.
+	 */
+	public int size() {
+		return size(this.root);
+	}
+
+	/**
+	 * public GenericAVLTree<K, V>[] split(K x)
+	 *
+	 * splits the tree into 2 trees according to the key x, both with this tree's comparator.
+	 * Returns an array [t1, t2] with two trees. keys(t1) < x < keys(t2); the item of x, if any, is in neither.
+	 * The nodes move to the new trees, so this tree is empty afterwards. O(log n).
+	 */
+	public GenericAVLTree<K, V>[] split(K x) {
+		@SuppressWarnings("unchecked")
+		Node<K, V>[] parts = (Node<K, V>[]) new Node<?, ?>[2];
+		split(this.root, x, parts);
+		this.root = null;
+		@SuppressWarnings("unchecked")
+		GenericAVLTree<K, V>[] trees = (GenericAVLTree<K, V>[]) new GenericAVLTree<?, ?>[2];
+		for (int j = 0; j < 2; j++) {
+			trees[j] = new GenericAVLTree<>(this.comparator);
+			trees[j].root = parts[j];
+		}
+		return trees;
+	}
+
+	/**
+	 * public int join(K k, V i, GenericAVLTree<K, V> t)
+	 *
+	 * joins t and the item (k, i) with the tree. The nodes of t move to this tree, so t is empty afterwards.
+	 * Returns the complexity of the operation (rank difference between the tree and t, plus 1).
+	 * Throws IllegalArgumentException if the trees have different comparators.
+	 * precondition: keys(k,t) < keys() or keys(k,t) > keys()
+	 */
+	public int join(K k, V i, GenericAVLTree<K, V> t) {
+		if (t.comparator != this.comparator)
+			throw new IllegalArgumentException("trees with different comparators");
+		Node<K, V> other = t.root;
+		int cost = Math.abs(height(this.root) - height(other)) + 1;
+		Node<K, V> x = new Node<>(k, i);
+		if (this.root != null ? this.comparator.compare(this.root.key, k) < 0 : other == null || this.comparator.compare(k, other.key) < 0) { //this tree holds the smaller keys
+			this.root = join(this.root, x, other);
+		}
+		else {
+			this.root = join(other, x, this.root);
+		}
+		t.root = null;
+		return cost;
+	}
+
+	@Override
+	int compare(Node<K, V> a, Node<K, V> b) {
+		return this.comparator.compare(a.key, b.key);
+	}
+
+	private Node<K, V> TreePosition(K k) { // returns the node of key k, or null if k is not in the tree
+		Comparator<? super K> cmp = this.comparator;
+		Node<K, V> node = this.root;
+		while (node != null) {
+			int c = cmp.compare(k, node.key);
+			if (c == 0) {
+				return node;
+			}
+			node = c < 0 ? node.left : node.right;
+		}
+		return null;
+	}
+
+	private void fillKeys(Node<K, V> node, List<K> list) {
+		if (node == null) {
+			return;
+		}
+		fillKeys(node.left, list);
+		list.add(node.key);
+		fillKeys(node.right, list);
+	}
+
+	private void fillInfo(Node<K, V> node, List<V> list) {
+		if (node == null) {
+			return;
+		}
+		fillInfo(node.left, list);
+		list.add(node.info);
+		fillInfo(node.right, list);
+	}
+
+	private Node<K, V> delete(Node<K, V> node, K k) { // returns the new subtree root
+		if (node == null) { // key k was not found in the tree
+			return null;
+		}
+		int c = this.comparator.compare(k, node.key);
+		if (c < 0) {
+			node.left = delete(node.left, k);
+		}
+		else if (c > 0) {
+			node.right = delete(node.right, k);
+		}
+		else {
+			this.rebalanceCounter = 0;
+			return unlink(node);
+		}
+		return this.rebalanceCounter == -1 ? node : balance(node);
+	}
+
+	private void split(Node<K, V> node, K x, Node<K, V>[] parts) { // sets parts to the roots of (keys < x, keys > x)
+		if (node == null) {
+			parts[0] = null;
+			parts[1] = null;
+			return;
+		}
+		Node<K, V> left = node.left;
+		Node<K, V> right = node.right;
+		int c = this.comparator.compare(x, node.key);
+		if (c < 0) {
+			split(left, x, parts);
+			parts[1] = join(parts[1], node, right);
+		}
+		else if (c > 0) {
+			split(right, x, parts);
+			parts[0] = join(left, node, parts[0]);
+		}
+		else {
+			parts[0] = left;
+			parts[1] = right;
+		}
+	}
+
+	static class Node<K, V> extends AbstractAVLTree.TreeNode<Node<K, V>> {
+
+		private final K key;
+		private V info;
+
+		Node(K key, V info) { // new leaf
+			this.key = key;
+			this.info = info;
+		}
+	}
+}
@@ -0,0 +1,192 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * IntObjAVLTree
+ * An implementation of a AVL Tree with distinct int keys and info of any type.
+ * Keys are kept unboxed as int, so searching compares primitives only, without widening them to long.
+ */
+public class IntObjAVLTree<V> extends AbstractAVLTree<IntObjAVLTree.Node<V>> {
+
+	private Node<V> root;
+
+	public IntObjAVLTree() { // Builder
+		this.root = null;
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 */
+	public boolean empty() {
+		return this.root == null;
+	}
+
+	/**
+	 * public V search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	public V search(int k) {
+		Node<V> node = TreePosition(k);
+		return node == null ? null : node.info;
+	}
+
+	/**
+	 * public int insert(int k, V i)
+	 *
+	 * inserts an item with key k and info i to the AVL tree.
+	 * returns the number of rebalancing operations (rotations and height changes),
+	 * or -1 if an item with key k already exists in the tree.
+	 */
+	public int insert(int k, V i) {
+		this.rebalanceCounter = 0;
+		this.root = insert(this.root, new Node<>(k, i));
+		return this.rebalanceCounter;
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from the tree, if it is there.
+	 * returns the number of rebalancing operations (rotations and height changes),
+	 * or -1 if an item with key k was not found in the tree.
+	 */
+	public int delete(int k) {
+		this.rebalanceCounter = -1;
+		this.root = delete(this.root, k);
+		return this.rebalanceCounter;
+	}
+
+	/**
+	 * public V min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public V min() {
+		if (empty()) {
+			return null;
+		}
+		Node<V> node = this.root;
+		while (node.left != null) {
+			node = node.left;
+		}
+		return node.info;
+	}
+
+	/**
+	 * public V max()
+	 *
+	 * Returns the info of the item with the largest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public V max() {
+		if (empty()) {
+			return null;
+		}
+		Node<V> node = this.root;
+		while (node.right != null) {
+			node = node.right;
+		}
+		return node.info;
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree,
+	 * or an empty array if the tree is empty.
+	 */
+	public int[] keysToArray() {
+		int[] arr = new int[size()];
+		fillKeys(this.root, arr, 0);
+		return arr;
+	}
+
+	/**
+	 * public List<V> infoToList()
+	 *
+	 * Returns a list which contains all info in the tree,
+	 * sorted by their respective keys,
+	 * or an empty list if the tree is empty.
+	 */
+	public List<V> infoToList() {
+		List<V> list = new ArrayList<>(size());
+		fillInfo(this.root, list);
+		return list;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of nodes in the tree.
+	 */
+	public int size() {
+		return size(this.root);
+	}
+
+	private Node<V> TreePosition(int k) { // returns the node of key k, or null if k is not in the tree
+		Node<V> node = this.root;
+		while (node != null) {
+			if (k == node.key) {
+				return node;
+			}
+			node = k < node.key ? node.left : node.right;
+		}
+		return null;
+	}
+
+	private static int fillKeys(Node<?> node, int[] arr, int index) { // returns the index after the subtree
+		if (node == null) {
+			return index;
+		}
+		index = fillKeys(node.left, arr, index);
+		arr[index++] = node.key;
+		return fillKeys(node.right, arr, index);
+	}
+
+	private void fillInfo(Node<V> node, List<V> list) {
+		if (node == null) {
+			return;
+		}
+		fillInfo(node.left, list);
+		list.add(node.info);
+		fillInfo(node.right, list);
+	}
+
+	private Node<V> delete(Node<V> node, int k) { // returns the new subtree root
+		if (node == null) { // key k was not found in the tree
+			return null;
+		}
+		if (k < node.key) {
+			node.left = delete(node.left, k);
+		}
+		else if (k > node.key) {
+			node.right = delete(node.right, k);
+		}
+		else {
+			this.rebalanceCounter = 0;
+			return unlink(node);
+		}
+		return this.rebalanceCounter == -1 ? node : balance(node);
+	}
+
+	@Override
+	int compare(Node<V> a, Node<V> b) {
+		return Integer.compare(a.key, b.key);
+	}
+
+	static class Node<V> extends AbstractAVLTree.TreeNode<Node<V>> {
+
+		private final int key;
+		private V info;
+
+		Node(int key, V info) { // new leaf
+			this.key = key;
+			this.info = info;
+		}
+	}
+}
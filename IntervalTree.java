@@ -0,0 +1,216 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * IntervalTree
+ * An AVL tree of distinct closed integer intervals [start, end], each with an info, ordered by
+ * start and then end. Every node also keeps the largest end in its subtree (maxEnd), recomputed
+ * with the height and size on every rotation and rebalancing step, so a subtree whose maxEnd is
+ * before a query can be skipped: stabbing and overlap queries take O(min(n, (k + 1) log n)) for k
+ * results, as every result may need a walk of its own down a subtree that the maxEnd test cannot
+ * skip, and a query without results still walks O(log n) nodes. That is more than the O(log n + k)
+ * of a priority search tree, which would have to restore its heap order after every rotation.
+ */
+public class IntervalTree extends AbstractAVLTree<IntervalTree.Node> {
+
+	private Node root;
+
+	public IntervalTree() { // Builder
+		this.root = null;
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 */
+	public boolean empty() {
+		return this.root == null;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of intervals in the tree.
+	 */
+	public int size() {
+		return size(this.root);
+	}
+
+	/**
+	 * public String search(int start, int end)
+	 *
+	 * returns the info of the interval [start, end] if it exists in the tree
+	 * otherwise, returns null
+	 */
+	public String search(int start, int end) {
+		Node node = this.root;
+		while (node != null) {
+			int c = compare(start, end, node.interval);
+			if (c == 0) {
+				return node.interval.info;
+			}
+			node = c < 0 ? node.left : node.right;
+		}
+		return null;
+	}
+
+	/**
+	 * public int insert(int start, int end, String i)
+	 *
+	 * inserts the interval [start, end] with info i to the tree.
+	 * returns the number of rebalancing operations (rotations and height changes),
+	 * or -1 if the interval already exists in the tree.
+	 * Throws IllegalArgumentException if start > end.
+	 */
+	public int insert(int start, int end, String i) {
+		if (start > end)
+			throw new IllegalArgumentException("interval [" + start + ", " + end + "]");
+		this.rebalanceCounter = 0;
+		this.root = insert(this.root, new Node(new Interval(start, end, i)));
+		return this.rebalanceCounter;
+	}
+
+	/**
+	 * public int delete(int start, int end)
+	 *
+	 * deletes the interval [start, end] from the tree, if it is there.
+	 * returns the number of rebalancing operations (rotations and height changes),
+	 * or -1 if the interval was not found in the tree.
+	 */
+	public int delete(int start, int end) {
+		this.rebalanceCounter = -1;
+		this.root = delete(this.root, start, end);
+		return this.rebalanceCounter;
+	}
+
+	/**
+	 * public List<Interval> stab(int t)
+	 *
+	 * Returns the intervals which contain t, ordered by start and then end.
+	 */
+	public List<Interval> stab(int t) {
+		return overlapping(t, t);
+	}
+
+	/**
+	 * public List<Interval> overlapping(int a, int b)
+	 *
+	 * Returns the intervals which share a point with [a, b], ordered by start and then end,
+	 * or an empty list if a > b.
+	 */
+	public List<Interval> overlapping(int a, int b) {
+		List<Interval> list = new ArrayList<>();
+		if (a <= b) {
+			collect(this.root, a, b, list);
+		}
+		return list;
+	}
+
+	/**
+	 * public List<Interval> intervalsToList()
+	 *
+	 * Returns all intervals in the tree, ordered by start and then end.
+	 */
+	public List<Interval> intervalsToList() {
+		List<Interval> list = new ArrayList<>(size());
+		collect(this.root, Integer.MIN_VALUE, Integer.MAX_VALUE, list);
+		return list;
+	}
+
+	private static int compare(int start, int end, Interval interval) {
+		if (start != interval.start) {
+			return start < interval.start ? -1 : 1;
+		}
+		return Integer.compare(end, interval.end);
+	}
+
+	private static void collect(Node node, int a, int b, List<Interval> list) { // in-order, skipping subtrees that end before a or start after b
+		while (node != null && node.maxEnd >= a) {
+			collect(node.left, a, b, list);
+			if (node.interval.start > b) { // so do all intervals to the right
+				return;
+			}
+			if (node.interval.end >= a) {
+				list.add(node.interval);
+			}
+			node = node.right;
+		}
+	}
+
+	private Node delete(Node node, int start, int end) { // returns the new subtree root
+		if (node == null) { // the interval was not found in the tree
+			return null;
+		}
+		int c = compare(start, end, node.interval);
+		if (c < 0) {
+			node.left = delete(node.left, start, end);
+		}
+		else if (c > 0) {
+			node.right = delete(node.right, start, end);
+		}
+		else {
+			this.rebalanceCounter = 0;
+			return unlink(node);
+		}
+		return this.rebalanceCounter == -1 ? node : balance(node);
+	}
+
+	@Override
+	int compare(Node a, Node b) {
+		return compare(a.interval.start, a.interval.end, b.interval);
+	}
+
+	/**
+	 * public static class Interval
+	 *
+	 * A closed interval [start, end] and its info, as stored in the tree.
+	 */
+	public static class Interval {
+
+		private final int start;
+		private final int end;
+		private final String info;
+
+		Interval(int start, int end, String info) {
+			this.start = start;
+			this.end = end;
+			this.info = info;
+		}
+
+		public int getStart() {
+			return this.start;
+		}
+
+		public int getEnd() {
+			return this.end;
+		}
+
+		public String getValue() {
+			return this.info;
+		}
+	}
+
+	static class Node extends AbstractAVLTree.TreeNode<Node> {
+
+		private final Interval interval;
+		private int maxEnd; // the largest end in the subtree
+
+		Node(Interval interval) { // new leaf
+			this.interval = interval;
+			this.maxEnd = interval.end;
+		}
+
+		@Override
+		void pull() {
+			int maxEnd = this.interval.end;
+			if (this.left != null && this.left.maxEnd > maxEnd) {
+				maxEnd = this.left.maxEnd;
+			}
+			if (this.right != null && this.right.maxEnd > maxEnd) {
+				maxEnd = this.right.maxEnd;
+			}
+			this.maxEnd = maxEnd;
+		}
+	}
+}
@@ -0,0 +1,265 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * JournaledAVLTree
+ * An AVLTree whose changes are appended to a write-ahead journal in a directory, next to a checkpoint
+ * of the whole tree (an AVLTreeFile image). Opening the directory loads the checkpoint and replays the journal.
+ *
+ * Records are written in groups: every batchSize changes the pending records are written and forced
+ * to disk with one fsync (group commit), so a crash loses at most the last batchSize - 1 changes,
+ * none if sync() was called after them. A torn or corrupt record at the end of the journal (checked
+ * by CRC32) ends the replay and is cut off.
+ * Not thread-safe, like AVLTree.
+ */
+public class JournaledAVLTree implements AutoCloseable {
+
+	private static final String CHECKPOINT = "checkpoint";
+	private static final String JOURNAL = "journal";
+	private static final byte INSERT = 1; // record types
+	private static final byte DELETE = 2;
+	private static final byte CLEAR = 3;
+	private static final int RECORD_OVERHEAD = 1 + 4 + 4 + 4; // type, key, info length, CRC
+
+	private final Path directory;
+	private final int batchSize;
+	private final FileChannel journal;
+	private final CRC32 crc;
+	private ByteBuffer pending; // records not written yet
+	private int pendingRecords;
+	private AVLTree tree;
+
+	/**
+	 * public JournaledAVLTree(Path directory, int batchSize)
+	 *
+	 * Opens (or creates) the journaled tree stored in directory and recovers its items.
+	 * Every batchSize changes are forced to disk together; 1 forces every change.
+	 */
+	public JournaledAVLTree(Path directory, int batchSize) throws IOException {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize " + batchSize);
+		Files.createDirectories(directory);
+		this.directory = directory;
+		this.batchSize = batchSize;
+		this.crc = new CRC32();
+		this.pending = ByteBuffer.allocate(1 << 16);
+		Path checkpoint = directory.resolve(CHECKPOINT);
+		this.tree = Files.exists(checkpoint) ? AVLTreeFile.load(checkpoint) : new AVLTree();
+		this.journal = FileChannel.open(directory.resolve(JOURNAL),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long end = replay();
+		this.journal.truncate(end); // cut off a torn tail
+		this.journal.position(end);
+		AVLTreeFile.syncDirectory(directory); // a journal created just now
+	}
+
+	/**
+	 * public AVLTree tree()
+	 *
+	 * Returns the underlying tree for reading. Changing it directly bypasses the journal.
+	 */
+	public AVLTree tree() {
+		return this.tree;
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * Same as AVLTree.search.
+	 */
+	public String search(int k) {
+		return this.tree.search(k);
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Same as AVLTree.size.
+	 */
+	public int size() {
+		return this.tree.size();
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * Same as AVLTree.insert; an item that was inserted is journaled.
+	 */
+	public int insert(int k, String i) {
+		int result = this.tree.insert(k, i);
+		if (result != -1)
+			append(INSERT, k, i);
+		return result;
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * Same as AVLTree.delete; an item that was deleted is journaled.
+	 */
+	public int delete(int k) {
+		int result = this.tree.delete(k);
+		if (result != -1)
+			append(DELETE, k, null);
+		return result;
+	}
+
+	/**
+	 * public AVLTree[] split(int x)
+	 *
+	 * Same as AVLTree.split. The two trees returned are not journaled; this tree is left empty.
+	 * precondition: search(x) != null
+	 */
+	public AVLTree[] split(int x) {
+		AVLTree[] parts = this.tree.split(x);
+		this.tree = new AVLTree();
+		append(CLEAR, 0, null);
+		return parts;
+	}
+
+	/**
+	 * public int join(IAVLNode x, AVLTree t)
+	 *
+	 * Same as AVLTree.join. x and every item of t are journaled as insertions once the join succeeded.
+	 * Throws IllegalArgumentException, changing nothing, unless keys(t) < key(x) < keys() or keys() < key(x) < keys(t).
+	 */
+	public int join(AVLTree.IAVLNode x, AVLTree t) {
+		int[] keys = t.keysToArray();
+		String[] infos = t.infoToArray();
+		int k = x.getKey();
+		boolean below = keys.length == 0 || keys[keys.length - 1] < k; // keys(t) < k
+		boolean above = keys.length == 0 || k < keys[0]; // k < keys(t)
+		if (!this.tree.empty()) {
+			below &= k < this.tree.select(0).getKey();
+			above &= this.tree.select(this.tree.size() - 1).getKey() < k;
+		}
+		if (!below && !above)
+			throw new IllegalArgumentException("key " + k + " and the keys of t are not on one side of the tree's keys");
+		String info = x.getValue();
+		int result = this.tree.join(x, t); // journaled only after it succeeded, like insert and delete
+		append(INSERT, k, info);
+		for (int j = 0; j < keys.length; j++) {
+			append(INSERT, keys[j], infos[j]);
+		}
+		return result;
+	}
+
+	/**
+	 * public void sync()
+	 *
+	 * Writes the pending records and forces the journal to disk.
+	 */
+	public void sync() {
+		try {
+			this.pending.flip();
+			while (this.pending.hasRemaining()) {
+				this.journal.write(this.pending);
+			}
+			this.pending.clear();
+			if (this.pendingRecords > 0)
+				this.journal.force(false);
+			this.pendingRecords = 0;
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * public void checkpoint()
+	 *
+	 * Saves the whole tree as the new checkpoint and empties the journal, so recovery replays nothing.
+	 * AVLTreeFile.save replaces the checkpoint atomically and durably before the journal is emptied, so a crash
+	 * keeps the old checkpoint and journal. A crash between the save and emptying the journal is harmless too,
+	 * as replaying it over the new checkpoint ends in the same items.
+	 */
+	public void checkpoint() throws IOException {
+		sync();
+		AVLTreeFile.save(this.tree, this.directory.resolve(CHECKPOINT));
+		this.journal.truncate(0);
+		this.journal.position(0);
+		this.journal.force(true);
+	}
+
+	/**
+	 * public void close()
+	 *
+	 * Syncs the pending records and closes the journal.
+	 */
+	@Override
+	public void close() throws IOException {
+		sync();
+		this.journal.close();
+	}
+
+	private void append(byte type, int key, String info) { // group commit once batchSize records are pending
+		byte[] bytes = info == null ? null : info.getBytes(StandardCharsets.UTF_8);
+		int length = bytes == null ? 0 : bytes.length;
+		if (this.pending.remaining() < RECORD_OVERHEAD + length) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(this.pending.capacity() * 2, this.pending.position() + RECORD_OVERHEAD + length));
+			this.pending.flip();
+			larger.put(this.pending);
+			this.pending = larger;
+		}
+		int start = this.pending.position();
+		this.pending.put(type).putInt(key).putInt(bytes == null ? -1 : length);
+		if (bytes != null)
+			this.pending.put(bytes);
+		this.crc.reset();
+		this.crc.update(this.pending.array(), start, this.pending.position() - start);
+		this.pending.putInt((int) this.crc.getValue());
+		if (++this.pendingRecords >= this.batchSize)
+			sync();
+	}
+
+	private long replay() throws IOException { // applies the journal to the tree, returns the length of its valid prefix
+		long valid = 0;
+		this.journal.position(0);
+		CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(
+				Channels.newInputStream(this.journal), 1 << 16), new CRC32());
+		DataInputStream in = new DataInputStream(checked);
+		try {
+			while (true) {
+				checked.getChecksum().reset();
+				byte type = in.readByte();
+				int key = in.readInt();
+				int length = in.readInt();
+				if (length < -1 || valid + RECORD_OVERHEAD + Math.max(length, 0) > this.journal.size())
+					break;
+				String info = null;
+				if (length >= 0) {
+					byte[] bytes = new byte[length];
+					in.readFully(bytes);
+					info = new String(bytes, StandardCharsets.UTF_8);
+				}
+				int expected = (int) checked.getChecksum().getValue();
+				if (in.readInt() != expected)
+					break;
+				if (type == INSERT)
+					this.tree.insert(key, info);
+				else if (type == DELETE)
+					this.tree.delete(key);
+				else if (type == CLEAR)
+					this.tree = new AVLTree();
+				else
+					break;
+				valid += RECORD_OVERHEAD + Math.max(length, 0);
+			}
+		}
+		catch (EOFException e) { // torn tail
+		}
+		return valid;
+	}
+}
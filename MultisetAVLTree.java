@@ -0,0 +1,287 @@
+/**
+ * MultisetAVLTree
+ * A multiset (bag) of integer keys: an AVL tree with one node per distinct key, holding the number
+ * of occurrences of that key. Every node also keeps the total number of occurrences in its subtree,
+ * so counting, adding and removing occurrences, and rank and select over occurrences are all one
+ * O(log n) walk, n being the number of distinct keys.
+ */
+public class MultisetAVLTree extends AbstractAVLTree<MultisetAVLTree.Node> {
+
+	private Node root;
+	private int count; // the count of the key of the current add/remove, after it
+
+	public MultisetAVLTree() { // Builder
+		this.root = null;
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the multiset is empty
+	 */
+	public boolean empty() {
+		return this.root == null;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of occurrences in the multiset, counting every key as many times as it occurs.
+	 */
+	public int size() {
+		return total(this.root);
+	}
+
+	/**
+	 * public int distinctSize()
+	 *
+	 * Returns the number of distinct keys in the multiset.
+	 */
+	public int distinctSize() {
+		return this.root == null ? 0 : this.root.size;
+	}
+
+	/**
+	 * public int count(int k)
+	 *
+	 * Returns the number of occurrences of k, 0 if k is not in the multiset.
+	 */
+	public int count(int k) {
+		Node node = this.root;
+		while (node != null) {
+			if (k == node.key) {
+				return node.count;
+			}
+			node = k < node.key ? node.left : node.right;
+		}
+		return 0;
+	}
+
+	/**
+	 * public int increment(int k)
+	 *
+	 * Adds one occurrence of k. Returns the new count of k.
+	 */
+	public int increment(int k) {
+		return add(k, 1);
+	}
+
+	/**
+	 * public int decrement(int k)
+	 *
+	 * Removes one occurrence of k, and k itself once its count drops to 0.
+	 * Returns the new count of k, or -1 if k was not in the multiset.
+	 */
+	public int decrement(int k) {
+		return remove(k, 1);
+	}
+
+	/**
+	 * public int add(int k, int times)
+	 *
+	 * Adds times occurrences of k. Returns the new count of k.
+	 * Throws IllegalArgumentException if times < 0, and ArithmeticException if a count would overflow.
+	 */
+	public int add(int k, int times) {
+		if (times < 0)
+			throw new IllegalArgumentException("times " + times);
+		if (times == 0)
+			return count(k);
+		Math.addExact(size(), times); // fails before the tree is changed
+		this.root = add(this.root, k, times);
+		return this.count;
+	}
+
+	/**
+	 * public int remove(int k, int times)
+	 *
+	 * Removes up to times occurrences of k, and k itself once its count drops to 0.
+	 * Returns the new count of k, or -1 if k was not in the multiset.
+	 * Throws IllegalArgumentException if times < 0.
+	 */
+	public int remove(int k, int times) {
+		if (times < 0)
+			throw new IllegalArgumentException("times " + times);
+		this.count = -1;
+		this.root = remove(this.root, k, times);
+		return this.count;
+	}
+
+	/**
+	 * public int removeAll(int k)
+	 *
+	 * Removes every occurrence of k. Returns the number of occurrences removed.
+	 */
+	public int removeAll(int k) {
+		int removed = count(k);
+		if (removed > 0)
+			remove(k, removed);
+		return removed;
+	}
+
+	/**
+	 * public int rank(int k)
+	 *
+	 * Returns the number of occurrences of keys smaller than k,
+	 * so if k is in the multiset then select(rank(k)) == k.
+	 */
+	public int rank(int k) {
+		int counter = 0;
+		Node node = this.root;
+		while (node != null) {
+			if (k <= node.key) {
+				node = node.left;
+			}
+			else {
+				counter += total(node.left) + node.count;
+				node = node.right;
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * public int select(int i)
+	 *
+	 * Returns the key of the i'th smallest occurrence (counting from 0), so a key with count c
+	 * is returned for c consecutive values of i.
+	 * Throws IndexOutOfBoundsException if i < 0 or i >= size().
+	 */
+	public int select(int i) {
+		if (i < 0 || i >= size())
+			throw new IndexOutOfBoundsException("index " + i + ", size " + size());
+		Node node = this.root;
+		while (true) {
+			int leftTotal = total(node.left);
+			if (i < leftTotal) {
+				node = node.left;
+			}
+			else if (i < leftTotal + node.count) {
+				return node.key;
+			}
+			else {
+				i -= leftTotal + node.count;
+				node = node.right;
+			}
+		}
+	}
+
+	/**
+	 * public int countInRange(int lo, int hi)
+	 *
+	 * Returns the number of occurrences of keys x with lo <= x <= hi, or 0 if lo > hi.
+	 */
+	public int countInRange(int lo, int hi) {
+		if (lo > hi)
+			return 0;
+		int below = hi == Integer.MAX_VALUE ? size() : rank(hi + 1);
+		return below - rank(lo);
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains every distinct key in the multiset once,
+	 * or an empty array if the multiset is empty.
+	 */
+	public int[] keysToArray() {
+		int[] arr = new int[distinctSize()];
+		toArrays(this.root, arr, null, 0);
+		return arr;
+	}
+
+	/**
+	 * public int[] countsToArray()
+	 *
+	 * Returns an array which contains the count of every distinct key,
+	 * sorted by their respective keys, or an empty array if the multiset is empty.
+	 */
+	public int[] countsToArray() {
+		int[] arr = new int[distinctSize()];
+		toArrays(this.root, null, arr, 0);
+		return arr;
+	}
+
+	private static int toArrays(Node node, int[] keys, int[] counts, int index) { // in-order, returns the next index
+		while (node != null) {
+			index = toArrays(node.left, keys, counts, index);
+			if (keys != null)
+				keys[index] = node.key;
+			if (counts != null)
+				counts[index] = node.count;
+			index++;
+			node = node.right;
+		}
+		return index;
+	}
+
+	private static int total(Node node) {
+		return node == null ? 0 : node.total;
+	}
+
+	private Node add(Node node, int k, int times) { // returns the new subtree root
+		if (node == null) {
+			this.count = times;
+			return new Node(k, times);
+		}
+		if (k == node.key) {
+			node.count += times;
+			this.count = node.count;
+			node.total += times;
+			return node;
+		}
+		if (k < node.key) {
+			node.left = add(node.left, k, times);
+		}
+		else {
+			node.right = add(node.right, k, times);
+		}
+		return balance(node);
+	}
+
+	private Node remove(Node node, int k, int times) { // returns the new subtree root
+		if (node == null) { // k was not found in the multiset
+			return null;
+		}
+		if (k < node.key) {
+			node.left = remove(node.left, k, times);
+		}
+		else if (k > node.key) {
+			node.right = remove(node.right, k, times);
+		}
+		else if (times < node.count) {
+			node.count -= times;
+			this.count = node.count;
+			node.total -= times;
+			return node;
+		}
+		else { // the last occurrences: the node goes
+			this.count = 0;
+			return unlink(node);
+		}
+		return balance(node);
+	}
+
+	@Override
+	int compare(Node a, Node b) {
+		return Integer.compare(a.key, b.key);
+	}
+
+	static class Node extends AbstractAVLTree.TreeNode<Node> { // size counts the distinct keys of the subtree
+
+		private final int key;
+		private int count; // occurrences of key, at least 1
+		private int total; // occurrences in the subtree
+
+		Node(int key, int count) { // new leaf
+			this.key = key;
+			this.count = count;
+			this.total = count;
+		}
+
+		@Override
+		void pull() {
+			this.total = total(this.left) + total(this.right) + this.count;
+		}
+	}
+}
@@ -0,0 +1,726 @@
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * OffHeapAVLTree
+ * An AVL tree with distinct integer keys and info whose nodes live outside the Java heap.
+ * Every node is a fixed-width record (key, height, size, left, right, value) in direct memory,
+ * addressed by an int handle. Handle 0 is the virtual leaf.
+ * The info strings live in direct memory too, as length-prefixed UTF-8 appended to value chunks;
+ * a String is made only when one is returned, so the heap does not grow with the tree.
+ * The bytes of deleted values are reclaimed by compacting the live ones once they are less than half.
+ * Trees produced by split share the storage of the tree they came from. A storage whose last record
+ * is released (by delete, or by join copying a tree out of it) gives back all but its first chunks.
+ * close() frees the direct memory at once instead of when the GC finds the tree unreachable.
+ */
+public class OffHeapAVLTree implements AutoCloseable {
+
+	private static final int VIRTUAL = 0; // handle of the virtual leaf
+	private static final int KEY = 0; // byte offsets inside a record
+	private static final int HEIGHT = 4;
+	private static final int SIZE = 8;
+	private static final int LEFT = 12;
+	private static final int RIGHT = 16;
+	private static final int VALUE = 20; // long: value chunk << 32 | offset in it, or NULL_VALUE
+	private static final int RECORD_BYTES = 28;
+	private static final long NULL_VALUE = -1L; // a null info
+	private static final int VALUE_CHUNK_BYTES = 1 << 20; // values larger than this get a chunk of their own
+	private static final int CHUNK_SHIFT = 16; // 2^16 records per direct buffer
+	private static final int CHUNK_RECORDS = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_RECORDS - 1;
+
+	private final NodeStore store;
+	private int root;
+	private int rebalanceCounter; // rebalancing operations of the current insert/delete
+
+	public OffHeapAVLTree() { // Builder
+		this(new NodeStore());
+	}
+
+	private OffHeapAVLTree(NodeStore store) {
+		this.store = store;
+		this.root = VIRTUAL;
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 */
+	public boolean empty() {
+		return this.root == VIRTUAL;
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	public String search(int k) {
+		NodeStore s = this.store;
+		int node = this.root;
+		while (node != VIRTUAL) {
+			int key = s.key(node);
+			if (k == key) {
+				return s.value(node);
+			}
+			node = k < key ? s.left(node) : s.right(node);
+		}
+		return null;
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i to the tree.
+	 * returns the number of rebalancing operations (rotations and height changes),
+	 * or -1 if an item with key k already exists in the tree.
+	 */
+	public int insert(int k, String i) {
+		if (contains(k)) {
+			return -1;
+		}
+		this.rebalanceCounter = 0;
+		this.root = insert(this.root, this.store.allocate(k, i));
+		return this.rebalanceCounter;
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from the tree, if it is there.
+	 * returns the number of rebalancing operations (rotations and height changes),
+	 * or -1 if an item with key k was not found in the tree.
+	 */
+	public int delete(int k) {
+		if (!contains(k)) {
+			return -1;
+		}
+		this.rebalanceCounter = 0;
+		this.root = delete(this.root, k);
+		return this.rebalanceCounter;
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public String min() {
+		if (empty()) {
+			return null;
+		}
+		int node = this.root;
+		while (this.store.left(node) != VIRTUAL) {
+			node = this.store.left(node);
+		}
+		return this.store.value(node);
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public String max() {
+		if (empty()) {
+			return null;
+		}
+		int node = this.root;
+		while (this.store.right(node) != VIRTUAL) {
+			node = this.store.right(node);
+		}
+		return this.store.value(node);
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree,
+	 * or an empty array if the tree is empty.
+	 */
+	public int[] keysToArray() {
+		int[] arr = new int[size()];
+		int[] stack = new int[height(this.root) + 2];
+		int top = 0;
+		int index = 0;
+		int node = this.root;
+		while (node != VIRTUAL || top > 0) { // iterative in-order walk
+			while (node != VIRTUAL) {
+				stack[top++] = node;
+				node = this.store.left(node);
+			}
+			node = stack[--top];
+			arr[index++] = this.store.key(node);
+			node = this.store.right(node);
+		}
+		return arr;
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the tree,
+	 * sorted by their respective keys,
+	 * or an empty array if the tree is empty.
+	 */
+	public String[] infoToArray() {
+		String[] arr = new String[size()];
+		int[] stack = new int[height(this.root) + 2];
+		int top = 0;
+		int index = 0;
+		int node = this.root;
+		while (node != VIRTUAL || top > 0) { // iterative in-order walk
+			while (node != VIRTUAL) {
+				stack[top++] = node;
+				node = this.store.left(node);
+			}
+			node = stack[--top];
+			arr[index++] = this.store.value(node);
+			node = this.store.right(node);
+		}
+		return arr;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of nodes in the tree.
+	 */
+	public int size() {
+		return this.store.size(this.root);
+	}
+
+	/**
+	 * public OffHeapAVLTree[] split(int x)
+	 *
+	 * splits the tree into 2 trees according to the key x.
+	 * Returns an array [t1, t2] with two trees. keys(t1) < x < keys(t2).
+	 * Both trees share this tree's storage; this tree is left empty.
+	 * precondition: search(x) != null
+	 */
+	public OffHeapAVLTree[] split(int x) {
+		long pair = split(this.root, x);
+		this.root = VIRTUAL;
+		OffHeapAVLTree smaller = new OffHeapAVLTree(this.store);
+		OffHeapAVLTree bigger = new OffHeapAVLTree(this.store);
+		smaller.root = (int) (pair >>> 32);
+		bigger.root = (int) pair;
+		return new OffHeapAVLTree[] {smaller, bigger};
+	}
+
+	/**
+	 * public int join(int k, String i, OffHeapAVLTree t)
+	 *
+	 * joins t and the item (k, i) with the tree; t is left empty.
+	 * Returns the complexity of the operation (rank difference between the tree and t, plus 1).
+	 * If t does not share this tree's storage, its nodes are first copied in linear time
+	 * and then released from t's storage.
+	 * precondition: keys(k,t) < keys() or keys(k,t) > keys()
+	 */
+	public int join(int k, String i, OffHeapAVLTree t) {
+		int other = t.root;
+		if (t.store != this.store) {
+			other = copyFrom(t);
+			t.releaseAll();
+		}
+		t.root = VIRTUAL;
+		int cost = Math.abs(height(this.root) - height(other)) + 1;
+		int x = this.store.allocate(k, i);
+		if (!empty() ? this.store.key(this.root) < k : other == VIRTUAL || k < this.store.key(other)) { //this tree holds the smaller keys
+			this.root = join(this.root, x, other);
+		}
+		else {
+			this.root = join(other, x, this.root);
+		}
+		return cost;
+	}
+
+	/**
+	 * public long offHeapBytes()
+	 *
+	 * Returns the number of bytes of direct memory reserved by this tree's storage, nodes and values,
+	 * or 0 once it is closed.
+	 */
+	public long offHeapBytes() {
+		return this.store.reservedBytes();
+	}
+
+	/**
+	 * public void close()
+	 *
+	 * Frees the direct memory of this tree's storage, which trees split from it or joined into it share.
+	 * Any later use of those trees throws IllegalStateException. Closing twice does nothing.
+	 */
+	@Override
+	public void close() {
+		this.store.close();
+	}
+
+	private boolean contains(int k) { // search can't tell a missing key from a null info
+		int node = this.root;
+		while (node != VIRTUAL) {
+			int key = this.store.key(node);
+			if (k == key) {
+				return true;
+			}
+			node = k < key ? this.store.left(node) : this.store.right(node);
+		}
+		return false;
+	}
+
+	private int height(int node) {
+		return this.store.height(node);
+	}
+
+	private int insert(int node, int x) { // inserts the detached node x below node, returns the new subtree root
+		if (node == VIRTUAL) {
+			return x;
+		}
+		if (this.store.key(x) < this.store.key(node)) {
+			this.store.setLeft(node, insert(this.store.left(node), x));
+		}
+		else {
+			this.store.setRight(node, insert(this.store.right(node), x));
+		}
+		return balance(node);
+	}
+
+	private int delete(int node, int k) { // removes k from the subtree of node, returns the new subtree root
+		NodeStore s = this.store;
+		int key = s.key(node);
+		if (k < key) {
+			s.setLeft(node, delete(s.left(node), k));
+			return balance(node);
+		}
+		if (k > key) {
+			s.setRight(node, delete(s.right(node), k));
+			return balance(node);
+		}
+		int left = s.left(node);
+		int right = s.right(node);
+		s.release(node);
+		if (left == VIRTUAL) {
+			return right;
+		}
+		if (right == VIRTUAL) {
+			return left;
+		}
+		int successor = right;
+		while (s.left(successor) != VIRTUAL) {
+			successor = s.left(successor);
+		}
+		s.setRight(successor, detachMin(right));
+		s.setLeft(successor, left);
+		return balance(successor);
+	}
+
+	private int detachMin(int node) { // removes the minimal node of the subtree without releasing it
+		int left = this.store.left(node);
+		if (left == VIRTUAL) {
+			return this.store.right(node);
+		}
+		this.store.setLeft(node, detachMin(left));
+		return balance(node);
+	}
+
+	private long split(int node, int x) { // returns the roots of (keys < x, keys > x) packed in a long
+		NodeStore s = this.store;
+		if (node == VIRTUAL) {
+			return 0L;
+		}
+		int key = s.key(node);
+		int left = s.left(node);
+		int right = s.right(node);
+		if (x == key) {
+			s.release(node);
+			return pack(left, right);
+		}
+		if (x < key) {
+			long pair = split(left, x);
+			return pack((int) (pair >>> 32), join((int) pair, node, right));
+		}
+		long pair = split(right, x);
+		return pack(join(left, node, (int) (pair >>> 32)), (int) pair);
+	}
+
+	private static long pack(int left, int right) {
+		return ((long) left << 32) | (right & 0xFFFFFFFFL);
+	}
+
+	private int join(int left, int x, int right) { // keys(left) < key(x) < keys(right)
+		int leftHeight = height(left);
+		int rightHeight = height(right);
+		if (leftHeight > rightHeight + 1) {
+			this.store.setRight(left, join(this.store.right(left), x, right));
+			return balance(left);
+		}
+		if (rightHeight > leftHeight + 1) {
+			this.store.setLeft(right, join(left, x, this.store.left(right)));
+			return balance(right);
+		}
+		this.store.setLeft(x, left);
+		this.store.setRight(x, right);
+		update(x);
+		return x;
+	}
+
+	private int copyFrom(OffHeapAVLTree t) { // copies t's nodes into this storage as a balanced subtree
+		return build(t.keysToArray(), t.infoToArray(), 0, t.size() - 1);
+	}
+
+	private void releaseAll() { // releases every node of this tree, which must be emptied right after
+		if (empty())
+			return;
+		NodeStore s = this.store;
+		int[] stack = new int[s.height(this.root) + 2];
+		int top = 0;
+		stack[top++] = this.root;
+		while (top > 0) {
+			int node = stack[--top];
+			if (s.left(node) != VIRTUAL)
+				stack[top++] = s.left(node);
+			if (s.right(node) != VIRTUAL)
+				stack[top++] = s.right(node);
+			s.release(node); // overwrites the left link, read above
+		}
+	}
+
+	private int build(int[] keys, String[] infos, int from, int to) {
+		if (from > to) {
+			return VIRTUAL;
+		}
+		int mid = (from + to) >>> 1;
+		int node = this.store.allocate(keys[mid], infos[mid]);
+		this.store.setLeft(node, build(keys, infos, from, mid - 1));
+		this.store.setRight(node, build(keys, infos, mid + 1, to));
+		update(node);
+		return node;
+	}
+
+	private void update(int node) { // recomputes height and size of node from its children
+		NodeStore s = this.store;
+		int left = s.left(node);
+		int right = s.right(node);
+		int height = Math.max(s.height(left), s.height(right)) + 1;
+		if (height != s.height(node)) {
+			this.rebalanceCounter++;
+			s.setHeight(node, height);
+		}
+		s.setSize(node, s.size(left) + s.size(right) + 1);
+	}
+
+	private int balance(int node) { // restores the AVL invariant at node, returns the new subtree root
+		NodeStore s = this.store;
+		update(node);
+		int left = s.left(node);
+		int right = s.right(node);
+		int difference = s.height(left) - s.height(right);
+		if (difference > 1) {
+			if (s.height(s.left(left)) < s.height(s.right(left))) { //double rotation
+				s.setLeft(node, rotateLeft(left));
+			}
+			return rotateRight(node);
+		}
+		if (difference < -1) {
+			if (s.height(s.right(right)) < s.height(s.left(right))) { //double rotation
+				s.setRight(node, rotateRight(right));
+			}
+			return rotateLeft(node);
+		}
+		return node;
+	}
+
+	private int rotateRight(int node) { // the left child of node goes up
+		int child = this.store.left(node);
+		this.store.setLeft(node, this.store.right(child));
+		this.store.setRight(child, node);
+		update(node);
+		update(child);
+		this.rebalanceCounter++;
+		return child;
+	}
+
+	private int rotateLeft(int node) { // the right child of node goes up
+		int child = this.store.right(node);
+		this.store.setRight(node, this.store.left(child));
+		this.store.setLeft(child, node);
+		update(node);
+		update(child);
+		this.rebalanceCounter++;
+		return child;
+	}
+
+	/**
+	 * private static class NodeStore
+	 *
+	 * Fixed-width node records in direct buffers of CHUNK_RECORDS records each,
+	 * so growing never copies existing nodes. Released handles are kept in a free list
+	 * threaded through their LEFT field. Values are appended to direct value chunks as
+	 * an int length and the UTF-8 bytes; a record points at its value by chunk and offset.
+	 */
+	private static class NodeStore {
+
+		private static final Object UNSAFE; // sun.misc.Unsafe, to free direct buffers at once, or null
+		private static final Method INVOKE_CLEANER;
+
+		static {
+			Object unsafe = null;
+			Method invokeCleaner = null;
+			try {
+				Class<?> type = Class.forName("sun.misc.Unsafe");
+				Field field = type.getDeclaredField("theUnsafe");
+				field.setAccessible(true);
+				unsafe = field.get(null);
+				invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+			}
+			catch (ReflectiveOperationException | RuntimeException e) { // not available: the GC frees the buffers
+				unsafe = null;
+				invokeCleaner = null;
+			}
+			UNSAFE = unsafe;
+			INVOKE_CLEANER = invokeCleaner;
+		}
+
+		private ByteBuffer[] chunks; // null once closed
+		private ByteBuffer[] valueChunks; // the last one is appended to
+		private int valueEnd; // bytes used in the last value chunk
+		private long valueBytes; // bytes used in all value chunks
+		private long liveValueBytes; // of them, bytes of values still held by a node
+		private int next; // first handle that was never allocated
+		private int freeList; // VIRTUAL if empty
+		private int live; // handles allocated and not released
+
+		NodeStore() {
+			this.chunks = new ByteBuffer[] {newChunk(CHUNK_RECORDS * RECORD_BYTES)};
+			this.valueChunks = new ByteBuffer[] {newChunk(VALUE_CHUNK_BYTES)};
+			this.next = VIRTUAL + 1;
+			this.freeList = VIRTUAL;
+			setHeight(VIRTUAL, -1);
+			setSize(VIRTUAL, 0);
+			setLeft(VIRTUAL, VIRTUAL);
+			setRight(VIRTUAL, VIRTUAL);
+			setKey(VIRTUAL, -1);
+			setValue(VIRTUAL, NULL_VALUE);
+		}
+
+		private static ByteBuffer newChunk(int bytes) {
+			return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+		}
+
+		private static void free(ByteBuffer chunk) {
+			if (INVOKE_CLEANER == null)
+				return;
+			try {
+				INVOKE_CLEANER.invoke(UNSAFE, chunk);
+			}
+			catch (ReflectiveOperationException e) { // left to the GC
+			}
+		}
+
+		void close() {
+			if (this.chunks == null)
+				return;
+			ByteBuffer[] chunks = this.chunks;
+			ByteBuffer[] valueChunks = this.valueChunks;
+			this.chunks = null; // every later access fails before touching freed memory
+			this.valueChunks = null;
+			for (ByteBuffer chunk : chunks) {
+				free(chunk);
+			}
+			for (ByteBuffer chunk : valueChunks) {
+				free(chunk);
+			}
+		}
+
+		long reservedBytes() {
+			if (this.chunks == null)
+				return 0;
+			long bytes = (long) this.chunks.length * CHUNK_RECORDS * RECORD_BYTES;
+			for (ByteBuffer chunk : this.valueChunks) {
+				bytes += chunk.capacity();
+			}
+			return bytes;
+		}
+
+		String value(int node) {
+			long value = getLong(node, VALUE);
+			if (value == NULL_VALUE)
+				return null;
+			ByteBuffer chunk = this.valueChunks[(int) (value >>> 32)];
+			int offset = (int) value;
+			byte[] bytes = new byte[chunk.getInt(offset)];
+			chunk.get(offset + 4, bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		private long storeValue(String info) { // appends info to the value chunks, returns its VALUE field
+			if (info == null)
+				return NULL_VALUE;
+			byte[] bytes = info.getBytes(StandardCharsets.UTF_8);
+			int needed = 4 + bytes.length;
+			if (this.valueBytes > 2 * this.liveValueBytes && this.valueBytes > VALUE_CHUNK_BYTES) // more than half are dead
+				compactValues();
+			ByteBuffer chunk = this.valueChunks[this.valueChunks.length - 1];
+			if (this.valueEnd + needed > chunk.capacity()) {
+				chunk = newChunk(Math.max(VALUE_CHUNK_BYTES, needed));
+				this.valueChunks = Arrays.copyOf(this.valueChunks, this.valueChunks.length + 1);
+				this.valueChunks[this.valueChunks.length - 1] = chunk;
+				this.valueEnd = 0;
+			}
+			int offset = this.valueEnd;
+			chunk.putInt(offset, bytes.length);
+			chunk.put(offset + 4, bytes);
+			this.valueEnd += needed;
+			this.valueBytes += needed;
+			this.liveValueBytes += needed;
+			return (long) (this.valueChunks.length - 1) << 32 | offset;
+		}
+
+		private void releaseValue(int node) {
+			long value = getLong(node, VALUE);
+			if (value != NULL_VALUE)
+				this.liveValueBytes -= 4 + this.valueChunks[(int) (value >>> 32)].getInt((int) value);
+			setValue(node, NULL_VALUE);
+		}
+
+		private void compactValues() { // copies the live values of all handles into new chunks and frees the old ones
+			ByteBuffer[] old = this.valueChunks;
+			this.valueChunks = new ByteBuffer[] {newChunk(VALUE_CHUNK_BYTES)};
+			this.valueEnd = 0;
+			this.valueBytes = 0;
+			this.liveValueBytes = 0;
+			for (int node = VIRTUAL + 1; node < this.next; node++) { // released handles hold NULL_VALUE
+				long value = getLong(node, VALUE);
+				if (value == NULL_VALUE)
+					continue;
+				ByteBuffer chunk = old[(int) (value >>> 32)];
+				int offset = (int) value;
+				byte[] bytes = new byte[chunk.getInt(offset)];
+				chunk.get(offset + 4, bytes);
+				setValue(node, storeValue(new String(bytes, StandardCharsets.UTF_8)));
+			}
+			for (ByteBuffer chunk : old) {
+				free(chunk);
+			}
+		}
+
+		int allocate(int key, String info) { // returns the handle of a new leaf
+			int node;
+			if (this.freeList != VIRTUAL) {
+				node = this.freeList;
+				this.freeList = left(node);
+			}
+			else {
+				node = this.next++;
+				if ((node >>> CHUNK_SHIFT) == chunks().length) {
+					this.chunks = Arrays.copyOf(this.chunks, this.chunks.length + 1);
+					this.chunks[this.chunks.length - 1] = newChunk(CHUNK_RECORDS * RECORD_BYTES);
+				}
+			}
+			setKey(node, key);
+			setHeight(node, 0);
+			setSize(node, 1);
+			setLeft(node, VIRTUAL);
+			setRight(node, VIRTUAL);
+			setValue(node, NULL_VALUE); // a compaction while storing info must not read the old value
+			setValue(node, storeValue(info));
+			this.live++;
+			return node;
+		}
+
+		void release(int node) {
+			releaseValue(node);
+			setLeft(node, this.freeList);
+			this.freeList = node;
+			if (--this.live == 0)
+				trim();
+		}
+
+		private void trim() { // no record is live: frees every chunk but the first of each kind, which stay for reuse
+			for (int j = 1; j < this.chunks.length; j++) {
+				free(this.chunks[j]);
+			}
+			for (int j = 1; j < this.valueChunks.length; j++) {
+				free(this.valueChunks[j]);
+			}
+			this.chunks = Arrays.copyOf(this.chunks, 1);
+			this.valueChunks = Arrays.copyOf(this.valueChunks, 1);
+			this.valueEnd = 0;
+			this.valueBytes = 0;
+			this.liveValueBytes = 0;
+			this.next = VIRTUAL + 1;
+			this.freeList = VIRTUAL;
+		}
+
+		int key(int node) {
+			return getInt(node, KEY);
+		}
+
+		int height(int node) {
+			return getInt(node, HEIGHT);
+		}
+
+		int size(int node) {
+			return getInt(node, SIZE);
+		}
+
+		int left(int node) {
+			return getInt(node, LEFT);
+		}
+
+		int right(int node) {
+			return getInt(node, RIGHT);
+		}
+
+		void setKey(int node, int key) {
+			putInt(node, KEY, key);
+		}
+
+		void setHeight(int node, int height) {
+			putInt(node, HEIGHT, height);
+		}
+
+		void setSize(int node, int size) {
+			putInt(node, SIZE, size);
+		}
+
+		void setLeft(int node, int left) {
+			putInt(node, LEFT, left);
+		}
+
+		void setRight(int node, int right) {
+			putInt(node, RIGHT, right);
+		}
+
+		private void setValue(int node, long value) {
+			chunks()[node >>> CHUNK_SHIFT].putLong((node & CHUNK_MASK) * RECORD_BYTES + VALUE, value);
+		}
+
+		private long getLong(int node, int field) {
+			return chunks()[node >>> CHUNK_SHIFT].getLong((node & CHUNK_MASK) * RECORD_BYTES + field);
+		}
+
+		private int getInt(int node, int field) {
+			return chunks()[node >>> CHUNK_SHIFT].getInt((node & CHUNK_MASK) * RECORD_BYTES + field);
+		}
+
+		private void putInt(int node, int field, int value) {
+			chunks()[node >>> CHUNK_SHIFT].putInt((node & CHUNK_MASK) * RECORD_BYTES + field, value);
+		}
+
+		private ByteBuffer[] chunks() {
+			ByteBuffer[] chunks = this.chunks;
+			if (chunks == null)
+				throw new IllegalStateException("closed");
+			return chunks;
+		}
+	}
+}
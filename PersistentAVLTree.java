@@ -0,0 +1,361 @@
+/**
+ * PersistentAVLTree
+ * An AVL tree with distinct integer keys whose nodes are never changed after they are built.
+ * insert, delete, split and join copy only the O(log n) nodes on the paths they touch and share
+ * the rest, so snapshot() is O(1) and every snapshot stays valid while the tree goes on changing.
+ *
+ * Writes to one PersistentAVLTree must not run concurrently, but any number of threads may read
+ * any snapshot (or the tree itself) at the same time without locks.
+ */
+public class PersistentAVLTree {
+
+	private volatile Node root; // null if the tree is empty
+	private int rebalanceCounter; // rebalancing operations of the current insert/delete
+
+	public PersistentAVLTree() { // Builder
+		this.root = null;
+	}
+
+	private PersistentAVLTree(Node root) {
+		this.root = root;
+	}
+
+	/**
+	 * public PersistentAVLTree snapshot()
+	 *
+	 * Returns an independent tree with the current items of this tree, in O(1).
+	 * Later writes to either tree are not seen by the other.
+	 */
+	public PersistentAVLTree snapshot() {
+		return new PersistentAVLTree(this.root);
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 */
+	public boolean empty() {
+		return this.root == null;
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	public String search(int k) {
+		Node node = TreePosition(this.root, k);
+		return node == null ? null : node.info;
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i to the tree.
+	 * returns the number of rebalancing operations (rotations and height changes),
+	 * or -1 if an item with key k already exists in the tree.
+	 */
+	public int insert(int k, String i) {
+		Node top = this.root;
+		if (TreePosition(top, k) != null) {
+			return -1;
+		}
+		this.rebalanceCounter = 0;
+		this.root = insert(top, k, i);
+		return this.rebalanceCounter;
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from the tree, if it is there.
+	 * returns the number of rebalancing operations (rotations and height changes),
+	 * or -1 if an item with key k was not found in the tree.
+	 */
+	public int delete(int k) {
+		Node top = this.root;
+		if (TreePosition(top, k) == null) {
+			return -1;
+		}
+		this.rebalanceCounter = 0;
+		this.root = delete(top, k);
+		return this.rebalanceCounter;
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public String min() {
+		Node node = this.root;
+		if (node == null) {
+			return null;
+		}
+		while (node.left != null) {
+			node = node.left;
+		}
+		return node.info;
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public String max() {
+		Node node = this.root;
+		if (node == null) {
+			return null;
+		}
+		while (node.right != null) {
+			node = node.right;
+		}
+		return node.info;
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree,
+	 * or an empty array if the tree is empty.
+	 */
+	public int[] keysToArray() {
+		Node top = this.root; // read once, so the array matches one version of the tree
+		int[] arr = new int[size(top)];
+		Node[] stack = new Node[height(top) + 2];
+		int depth = 0;
+		int index = 0;
+		Node node = top;
+		while (node != null || depth > 0) { // iterative in-order walk
+			if (node != null) {
+				stack[depth++] = node;
+				node = node.left;
+			}
+			else {
+				node = stack[--depth];
+				arr[index++] = node.key;
+				node = node.right;
+			}
+		}
+		return arr;
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the tree,
+	 * sorted by their respective keys,
+	 * or an empty array if the tree is empty.
+	 */
+	public String[] infoToArray() {
+		Node top = this.root; // read once, so the array matches one version of the tree
+		String[] arr = new String[size(top)];
+		Node[] stack = new Node[height(top) + 2];
+		int depth = 0;
+		int index = 0;
+		Node node = top;
+		while (node != null || depth > 0) { // iterative in-order walk
+			if (node != null) {
+				stack[depth++] = node;
+				node = node.left;
+			}
+			else {
+				node = stack[--depth];
+				arr[index++] = node.info;
+				node = node.right;
+			}
+		}
+		return arr;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of nodes in the tree.
+	 */
+	public int size() {
+		return size(this.root);
+	}
+
+	/**
+	 * public PersistentAVLTree[] split(int x)
+	 *
+	 * splits the tree into 2 trees according to the key x.
+	 * Returns an array [t1, t2] with two trees. keys(t1) < x < keys(t2); the item of x, if any, is in neither.
+	 * This tree is not changed: both trees share its nodes except the O(log n) copied along the path of x.
+	 */
+	public PersistentAVLTree[] split(int x) {
+		Node[] parts = new Node[2];
+		split(this.root, x, parts);
+		return new PersistentAVLTree[] {new PersistentAVLTree(parts[0]), new PersistentAVLTree(parts[1])};
+	}
+
+	/**
+	 * public int join(int k, String i, PersistentAVLTree t)
+	 *
+	 * joins t and the item (k, i) with the tree. t is not changed, its nodes are shared.
+	 * Returns the complexity of the operation (rank difference between the tree and t, plus 1).
+	 * precondition: keys(k,t) < keys() or keys(k,t) > keys()
+	 */
+	public int join(int k, String i, PersistentAVLTree t) {
+		Node top = this.root;
+		Node other = t.root;
+		int cost = Math.abs(height(top) - height(other)) + 1;
+		if (top != null ? top.key < k : other == null || k < other.key) { //this tree holds the smaller keys
+			this.root = join(top, k, i, other);
+		}
+		else {
+			this.root = join(other, k, i, top);
+		}
+		return cost;
+	}
+
+	private static Node TreePosition(Node node, int k) { // returns the node of key k, or null if k is not in the subtree
+		while (node != null) {
+			if (k == node.key) {
+				return node;
+			}
+			node = k < node.key ? node.left : node.right;
+		}
+		return null;
+	}
+
+	private static int height(Node node) {
+		return node == null ? -1 : node.height;
+	}
+
+	private static int size(Node node) {
+		return node == null ? 0 : node.size;
+	}
+
+	private Node insert(Node node, int k, String i) { // returns the root of a copy of the subtree with (k, i) added
+		if (node == null) {
+			return new Node(k, i, null, null);
+		}
+		if (k < node.key) {
+			return balance(node, insert(node.left, k, i), node.right);
+		}
+		return balance(node, node.left, insert(node.right, k, i));
+	}
+
+	private Node delete(Node node, int k) { // returns the root of a copy of the subtree without k
+		if (k < node.key) {
+			return balance(node, delete(node.left, k), node.right);
+		}
+		if (k > node.key) {
+			return balance(node, node.left, delete(node.right, k));
+		}
+		if (node.left == null) {
+			return node.right;
+		}
+		if (node.right == null) {
+			return node.left;
+		}
+		Node successor = node.right;
+		while (successor.left != null) {
+			successor = successor.left;
+		}
+		return balance(successor, node.left, deleteMin(node.right));
+	}
+
+	private Node deleteMin(Node node) { // returns the root of a copy of the subtree without its minimal node
+		if (node.left == null) {
+			return node.right;
+		}
+		return balance(node, deleteMin(node.left), node.right);
+	}
+
+	private void split(Node node, int x, Node[] parts) { // sets parts to the roots of (keys < x, keys > x)
+		if (node == null) {
+			parts[0] = null;
+			parts[1] = null;
+		}
+		else if (x < node.key) {
+			split(node.left, x, parts);
+			parts[1] = join(parts[1], node.key, node.info, node.right);
+		}
+		else if (x > node.key) {
+			split(node.right, x, parts);
+			parts[0] = join(node.left, node.key, node.info, parts[0]);
+		}
+		else {
+			parts[0] = node.left;
+			parts[1] = node.right;
+		}
+	}
+
+	private Node join(Node left, int k, String i, Node right) { // keys(left) < k < keys(right), copies only the spine it walks down
+		int leftHeight = height(left);
+		int rightHeight = height(right);
+		if (leftHeight > rightHeight + 1) {
+			return balance(left, left.left, join(left.right, k, i, right));
+		}
+		if (rightHeight > leftHeight + 1) {
+			return balance(right, join(left, k, i, right.left), right.right);
+		}
+		return new Node(k, i, left, right);
+	}
+
+	private Node balance(Node old, Node left, Node right) { // a copy of old with the given children, rebalanced
+		int difference = height(left) - height(right);
+		Node node;
+		if (difference > 1) {
+			if (height(left.left) < height(left.right)) { //double rotation
+				left = rotateLeft(left.key, left.info, left.left, left.right);
+			}
+			node = rotateRight(old.key, old.info, left, right);
+		}
+		else if (difference < -1) {
+			if (height(right.right) < height(right.left)) { //double rotation
+				right = rotateRight(right.key, right.info, right.left, right.right);
+			}
+			node = rotateLeft(old.key, old.info, left, right);
+		}
+		else {
+			node = new Node(old.key, old.info, left, right);
+		}
+		if (node.height != old.height) {
+			this.rebalanceCounter++;
+		}
+		return node;
+	}
+
+	private Node rotateRight(int k, String i, Node left, Node right) { // the left child goes up
+		this.rebalanceCounter++;
+		return new Node(left.key, left.info, left.left, new Node(k, i, left.right, right));
+	}
+
+	private Node rotateLeft(int k, String i, Node left, Node right) { // the right child goes up
+		this.rebalanceCounter++;
+		return new Node(right.key, right.info, new Node(k, i, left, right.left), right.right);
+	}
+
+	/**
+	 * private static class Node
+	 *
+	 * An immutable tree node; height and size are computed from the children when it is built.
+	 */
+	private static class Node {
+
+		private final int key;
+		private final String info;
+		private final int height;
+		private final int size;
+		private final Node left;
+		private final Node right;
+
+		Node(int key, String info, Node left, Node right) {
+			this.key = key;
+			this.info = info;
+			this.left = left;
+			this.right = right;
+			this.height = Math.max(height(left), height(right)) + 1;
+			this.size = size(left) + size(right) + 1;
+		}
+	}
+}
@@ -0,0 +1,368 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * ShardedAVLTree
+ * A thread-safe ordered map of distinct integer keys, split by key range into AVLTree shards that
+ * each have their own lock, so writes to different ranges run in parallel.
+ *
+ * Every shard owns the keys from its lower bound up to the next shard's lower bound. The shard array
+ * is copy-on-write: operations route by binary search over a snapshot of it and retry if the shard
+ * they locked has been replaced meanwhile. A shard that grows beyond maxShardSize is split at its
+ * median with AVLTree.split, right after the insert that made it too large; rebalance() also splits
+ * shards that took much more than their share of the writes, and joins small neighbours with AVLTree.join.
+ * Range queries visit the shards in key order, each under its own lock, so they see every shard
+ * consistent but not all shards at the same instant.
+ */
+public class ShardedAVLTree {
+
+	private static final double HOT_FACTOR = 2; // rebalance splits a shard with more than HOT_FACTOR times the mean writes
+
+	private final int maxShardSize;
+	private final ReentrantLock structureLock; // one split or join of shards at a time
+	private volatile Shard[] shards; // sorted by lower bound, the first one from Integer.MIN_VALUE
+
+	public ShardedAVLTree() { // Builder
+		this(Runtime.getRuntime().availableProcessors() * 4, 1 << 16);
+	}
+
+	/**
+	 * public ShardedAVLTree(int shards, int maxShardSize)
+	 *
+	 * Starts with shards empty shards over equal ranges of the int keys; a shard is split once
+	 * it holds more than maxShardSize items.
+	 * Throws IllegalArgumentException if shards < 1 or maxShardSize < 2.
+	 */
+	public ShardedAVLTree(int shards, int maxShardSize) {
+		if (shards < 1 || maxShardSize < 2)
+			throw new IllegalArgumentException("shards " + shards + ", maxShardSize " + maxShardSize);
+		this.maxShardSize = maxShardSize;
+		this.structureLock = new ReentrantLock();
+		Shard[] initial = new Shard[shards];
+		long width = (1L << 32) / shards;
+		for (int j = 0; j < shards; j++) {
+			initial[j] = new Shard((int) (Integer.MIN_VALUE + j * width), new AVLTree());
+		}
+		for (int j = 0; j < shards; j++) {
+			initial[j].next = j + 1 < shards ? initial[j + 1].lo : Integer.MIN_VALUE;
+		}
+		this.shards = initial;
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the map
+	 * otherwise, returns null
+	 */
+	public String search(int k) {
+		Shard shard = lock(k);
+		try {
+			return shard.tree.search(k);
+		}
+		finally {
+			shard.lock.unlock();
+		}
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * Same as AVLTree.insert, locking only the shard of k.
+	 */
+	public int insert(int k, String i) {
+		Shard shard = lock(k);
+		int result;
+		boolean oversized;
+		try {
+			result = shard.tree.insert(k, i);
+			shard.writes++;
+			oversized = shard.tree.size() > this.maxShardSize;
+		}
+		finally {
+			shard.lock.unlock();
+		}
+		if (oversized && this.structureLock.tryLock()) { // another thread is already reshaping otherwise
+			try {
+				splitShard(shard);
+			}
+			finally {
+				this.structureLock.unlock();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * Same as AVLTree.delete, locking only the shard of k.
+	 */
+	public int delete(int k) {
+		Shard shard = lock(k);
+		try {
+			shard.writes++;
+			return shard.tree.delete(k);
+		}
+		finally {
+			shard.lock.unlock();
+		}
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of items in the map, adding up the shards one at a time.
+	 */
+	public int size() {
+		int size = 0;
+		int from = Integer.MIN_VALUE;
+		while (true) {
+			Shard shard = lock(from);
+			int next;
+			try {
+				size += shard.tree.size();
+				next = shard.next;
+			}
+			finally {
+				shard.lock.unlock();
+			}
+			if (next == Integer.MIN_VALUE)
+				return size;
+			from = next;
+		}
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the map is empty
+	 */
+	public boolean empty() {
+		return size() == 0;
+	}
+
+	/**
+	 * public int countInRange(int lo, int hi)
+	 *
+	 * Returns the number of keys x in the map with lo <= x <= hi, or 0 if lo > hi.
+	 */
+	public int countInRange(int lo, int hi) {
+		int[] count = {0};
+		forEachInRange(lo, hi, (info, key) -> count[0]++);
+		return count[0];
+	}
+
+	/**
+	 * public int[] keysInRange(int lo, int hi)
+	 *
+	 * Returns the sorted keys x in the map with lo <= x <= hi, or an empty array if lo > hi.
+	 */
+	public int[] keysInRange(int lo, int hi) {
+		int[][] keys = {new int[16]};
+		int[] count = {0};
+		forEachInRange(lo, hi, (info, key) -> {
+			if (count[0] == keys[0].length)
+				keys[0] = Arrays.copyOf(keys[0], count[0] * 2);
+			keys[0][count[0]++] = key;
+		});
+		return Arrays.copyOf(keys[0], count[0]);
+	}
+
+	/**
+	 * public void forEachInRange(int lo, int hi, ObjIntConsumer<String> action)
+	 *
+	 * Calls action(info, key) for every item with lo <= key <= hi in increasing key order: the shards
+	 * that overlap [lo, hi] are visited in order, each under its lock, and action runs under that lock.
+	 */
+	public void forEachInRange(int lo, int hi, ObjIntConsumer<String> action) {
+		if (lo > hi)
+			return;
+		int from = lo;
+		while (true) {
+			Shard shard = lock(from);
+			int next; // lower bound of the next shard, or Integer.MIN_VALUE after the last one
+			try {
+				Iterator<AVLTree.IAVLNode> range = shard.tree.range(from, hi);
+				while (range.hasNext()) {
+					AVLTree.IAVLNode node = range.next();
+					action.accept(node.getValue(), node.getKey());
+				}
+				next = shard.next;
+			}
+			finally {
+				shard.lock.unlock();
+			}
+			if (next == Integer.MIN_VALUE || next > hi)
+				return;
+			from = next;
+		}
+	}
+
+	/**
+	 * public int shardCount()
+	 *
+	 * Returns the current number of shards.
+	 */
+	public int shardCount() {
+		return this.shards.length;
+	}
+
+	/**
+	 * public void rebalance()
+	 *
+	 * Splits the shards that took more than HOT_FACTOR times the mean number of writes since the last
+	 * rebalance, and joins neighbouring shards that together hold less than a quarter of maxShardSize
+	 * and are not hot.
+	 * Runs alongside the other operations, locking only the shards it changes.
+	 */
+	public void rebalance() {
+		this.structureLock.lock();
+		try {
+			Shard[] current = this.shards;
+			long[] writes = new long[current.length];
+			long total = 0;
+			for (int j = 0; j < current.length; j++) {
+				current[j].lock.lock();
+				writes[j] = current[j].writes;
+				current[j].lock.unlock();
+				total += writes[j];
+			}
+			double hot = HOT_FACTOR * total / current.length;
+			for (int j = 0; j < current.length; j++) {
+				if (writes[j] > hot)
+					splitShard(current[j]);
+			}
+			for (int j = 0; j + 1 < this.shards.length; ) {
+				Shard left = this.shards[j];
+				Shard right = this.shards[j + 1];
+				if (!joinShards(left, right, hot)) // retries the joined shard with its next neighbour otherwise
+					j++;
+			}
+			for (Shard shard : this.shards) { // a new period of writes
+				shard.lock.lock();
+				shard.writes = 0;
+				shard.lock.unlock();
+			}
+		}
+		finally {
+			this.structureLock.unlock();
+		}
+	}
+
+	private Shard lock(int k) { // locks and returns the current shard of k
+		while (true) {
+			Shard[] current = this.shards;
+			int low = 0;
+			int high = current.length - 1;
+			while (low < high) { // the last shard whose lower bound is <= k
+				int mid = (low + high + 1) >>> 1;
+				if (current[mid].lo <= k)
+					low = mid;
+				else
+					high = mid - 1;
+			}
+			Shard shard = current[low];
+			shard.lock.lock();
+			if (!shard.retired)
+				return shard;
+			shard.lock.unlock(); // replaced meanwhile, the new array is published already
+		}
+	}
+
+	private void splitShard(Shard shard) { // under structureLock: replaces shard by two halves at its median
+		shard.lock.lock();
+		try {
+			int size = shard.tree.size();
+			if (shard.retired || size < 2)
+				return;
+			AVLTree.IAVLNode median = shard.tree.select(size / 2);
+			int x = median.getKey();
+			String info = median.getValue();
+			AVLTree[] parts = shard.tree.split(x); // the item of x is in neither part
+			parts[1].insert(x, info);
+			Shard left = new Shard(shard.lo, parts[0]);
+			Shard right = new Shard(x, parts[1]);
+			left.writes = shard.writes / 2; // so the halves of a hot shard are not joined back
+			right.writes = shard.writes - left.writes;
+			replace(shard, null, left, right);
+		}
+		finally {
+			shard.lock.unlock();
+		}
+	}
+
+	private boolean joinShards(Shard left, Shard right, double hot) { // under structureLock: replaces two neighbours by one if they are small and not hot
+		left.lock.lock();
+		right.lock.lock();
+		try {
+			if (left.tree.size() + right.tree.size() >= this.maxShardSize / 4 || left.writes + right.writes > hot)
+				return false;
+			AVLTree joined = left.tree;
+			if (!right.tree.empty()) { // the minimum of right links the two trees
+				AVLTree.IAVLNode first = right.tree.select(0);
+				int k = first.getKey();
+				String info = first.getValue();
+				right.tree.delete(k);
+				joined.join(joined.new AVLNode(k, info, 0, null, null, null, 1), right.tree);
+			}
+			Shard merged = new Shard(left.lo, joined);
+			merged.writes = left.writes + right.writes;
+			replace(left, right, merged, null);
+			return true;
+		}
+		finally {
+			right.lock.unlock();
+			left.lock.unlock();
+		}
+	}
+
+	private void replace(Shard first, Shard second, Shard a, Shard b) { // publishes the shard array with first (and second) replaced by a (and b)
+		Shard[] current = this.shards;
+		int removed = second == null ? 1 : 2;
+		int added = b == null ? 1 : 2;
+		Shard[] next = new Shard[current.length - removed + added];
+		int j = 0;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == first) {
+				next[j++] = a;
+				if (b != null)
+					next[j++] = b;
+			}
+			else if (current[i] != second) {
+				next[j++] = current[i];
+			}
+		}
+		for (int i = 0; i < next.length; i++) { // the neighbours keep their bounds
+			if (next[i] == a || next[i] == b)
+				next[i].next = i + 1 < next.length ? next[i + 1].lo : Integer.MIN_VALUE;
+		}
+		this.shards = next;
+		first.retired = true;
+		if (second != null)
+			second.retired = true;
+	}
+
+	/**
+	 * private static class Shard
+	 *
+	 * One AVLTree with the keys in [lo, next), and its lock. Replaced, never changed in range.
+	 */
+	private static class Shard {
+
+		private final int lo;
+		private final AVLTree tree;
+		private final ReentrantLock lock;
+		private int next; // the lower bound of the next shard, Integer.MIN_VALUE for the last one; set before the shard is published
+		private boolean retired; // replaced by other shards, under lock
+		private long writes; // inserts and deletes since the last rebalance, under lock
+
+		Shard(int lo, AVLTree tree) {
+			this.lo = lo;
+			this.tree = tree;
+			this.lock = new ReentrantLock();
+		}
+	}
+}
@@ -0,0 +1,233 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * ValueArena
+ * Append-only storage of info strings as UTF-8 bytes in one growing byte array, for AVLTrees built with
+ * it (see AVLTree(Aggregator, ValueArena)). A value is stored once however many nodes hold it: add looks
+ * the bytes up in an open-addressing table of offsets and returns the offset of an equal value if there is
+ * one, so a node needs only an int instead of its own String. Every entry is a varint length followed by
+ * the bytes; entries never change, so views of them stay valid as the arena grows.
+ *
+ * Nothing is freed: values whose nodes were deleted stay until the arena is dropped, bounded by the number
+ * of distinct values. Not thread-safe, like AVLTree; trees that share an arena must be used by one thread.
+ */
+public class ValueArena {
+
+	private static final int MIN_BYTES = 1 << 10;
+	private static final int EMPTY = -1; // a free slot of the table
+
+	private byte[] bytes;
+	private int end; // bytes used
+	private int[] table; // offsets of the entries by hash, EMPTY where free; at most half full
+	private int entries;
+	private long adds;
+
+	public ValueArena() { // Builder
+		this.bytes = new byte[MIN_BYTES];
+		this.table = new int[64];
+		Arrays.fill(this.table, EMPTY);
+	}
+
+	/**
+	 * public int add(String value)
+	 *
+	 * Stores value and returns its offset, the offset of an equal value if one is stored already.
+	 * The value is encoded straight into the arena and dropped again if it is a duplicate, so adding a
+	 * duplicate allocates nothing. Throws IllegalStateException if the arena would pass 2^31 bytes.
+	 */
+	public int add(String value) {
+		this.adds++;
+		int offset = this.end;
+		int length = utf8Length(value);
+		reserve(5 + length);
+		int start = writeVarint(offset, length);
+		encode(value, start);
+		int hash = hash(this.bytes, start, length);
+		int mask = this.table.length - 1;
+		for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+			int existing = this.table[slot];
+			if (existing == EMPTY) {
+				this.table[slot] = offset;
+				this.end = start + length;
+				if (++this.entries * 2 > this.table.length)
+					rehash();
+				return offset;
+			}
+			if (equalAt(existing, start, length))
+				return existing; // the copy at the end is overwritten by the next add
+		}
+	}
+
+	/**
+	 * public String get(int offset)
+	 *
+	 * Returns a new String of the value at offset.
+	 */
+	public String get(int offset) {
+		int length = readVarint(offset);
+		return new String(this.bytes, offset + varintSize(length), length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * public ByteBuffer view(int offset)
+	 *
+	 * Returns a read-only buffer over the UTF-8 bytes of the value at offset, without copying them.
+	 */
+	public ByteBuffer view(int offset) {
+		int length = readVarint(offset);
+		return ByteBuffer.wrap(this.bytes, offset + varintSize(length), length).slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * public int entries()
+	 *
+	 * Returns the number of distinct values stored.
+	 */
+	public int entries() {
+		return this.entries;
+	}
+
+	/**
+	 * public long adds()
+	 *
+	 * Returns the number of calls of add, so adds() - entries() of them were deduplicated.
+	 */
+	public long adds() {
+		return this.adds;
+	}
+
+	/**
+	 * public int storedBytes()
+	 *
+	 * Returns the bytes taken by the entries, length prefixes included.
+	 */
+	public int storedBytes() {
+		return this.end;
+	}
+
+	/**
+	 * public long memoryBytes()
+	 *
+	 * Returns the bytes taken by the arena's arrays, the unused tail and the table included.
+	 */
+	public long memoryBytes() {
+		return 16L + this.bytes.length + 16L + 4L * this.table.length;
+	}
+
+	private void reserve(int extra) { // makes room for extra more bytes
+		long needed = (long) this.end + extra;
+		if (needed <= this.bytes.length)
+			return;
+		if (needed > Integer.MAX_VALUE - 8)
+			throw new IllegalStateException("arena full");
+		long grown = Math.max(needed, Math.min((long) this.bytes.length * 2, Integer.MAX_VALUE - 8));
+		this.bytes = Arrays.copyOf(this.bytes, (int) grown); // earlier views keep the old array, whose entries are the same
+	}
+
+	private void rehash() {
+		int[] table = new int[this.table.length * 2];
+		Arrays.fill(table, EMPTY);
+		int mask = table.length - 1;
+		for (int offset : this.table) {
+			if (offset == EMPTY)
+				continue;
+			int length = readVarint(offset);
+			int slot = hash(this.bytes, offset + varintSize(length), length) & mask;
+			while (table[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = offset;
+		}
+		this.table = table;
+	}
+
+	private boolean equalAt(int offset, int start, int length) { // the entry at offset holds bytes[start, start + length)
+		if (readVarint(offset) != length)
+			return false;
+		int from = offset + varintSize(length);
+		return Arrays.equals(this.bytes, from, from + length, this.bytes, start, start + length);
+	}
+
+	private static int hash(byte[] bytes, int from, int length) {
+		int h = 0;
+		for (int j = from; j < from + length; j++) {
+			h = 31 * h + bytes[j];
+		}
+		return h ^ (h >>> 16); // the table indexes with the low bits
+	}
+
+	private int writeVarint(int at, int value) { // 7 bits per byte, low bits first; returns the offset after it
+		while (value >= 0x80) {
+			this.bytes[at++] = (byte) (value | 0x80);
+			value >>>= 7;
+		}
+		this.bytes[at++] = (byte) value;
+		return at;
+	}
+
+	private int readVarint(int at) {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = this.bytes[at++];
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+	}
+
+	private static int varintSize(int value) {
+		return (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
+	}
+
+	private static int utf8Length(String value) { // the bytes encode writes
+		int length = 0;
+		for (int j = 0; j < value.length(); j++) {
+			char c = value.charAt(j);
+			if (c < 0x80) {
+				length += 1;
+			}
+			else if (c < 0x800) {
+				length += 2;
+			}
+			else if (Character.isHighSurrogate(c) && j + 1 < value.length() && Character.isLowSurrogate(value.charAt(j + 1))) {
+				length += 4;
+				j++;
+			}
+			else {
+				length += Character.isSurrogate(c) ? 1 : 3;
+			}
+		}
+		return length;
+	}
+
+	private void encode(String value, int at) { // UTF-8 like String.getBytes, unpaired surrogates as '?'
+		byte[] out = this.bytes;
+		for (int j = 0; j < value.length(); j++) {
+			char c = value.charAt(j);
+			if (c < 0x80) {
+				out[at++] = (byte) c;
+			}
+			else if (c < 0x800) {
+				out[at++] = (byte) (0xC0 | c >> 6);
+				out[at++] = (byte) (0x80 | c & 0x3F);
+			}
+			else if (Character.isHighSurrogate(c) && j + 1 < value.length() && Character.isLowSurrogate(value.charAt(j + 1))) {
+				int code = Character.toCodePoint(c, value.charAt(++j));
+				out[at++] = (byte) (0xF0 | code >> 18);
+				out[at++] = (byte) (0x80 | code >> 12 & 0x3F);
+				out[at++] = (byte) (0x80 | code >> 6 & 0x3F);
+				out[at++] = (byte) (0x80 | code & 0x3F);
+			}
+			else if (Character.isSurrogate(c)) {
+				out[at++] = '?';
+			}
+			else {
+				out[at++] = (byte) (0xE0 | c >> 12);
+				out[at++] = (byte) (0x80 | c >> 6 & 0x3F);
+				out[at++] = (byte) (0x80 | c & 0x3F);
+			}
+		}
+	}
+}